@@ -65,8 +65,8 @@ class CharUnit implements Serializable {
  * <P>
  *
  * These methods all have similar argument lists.  The input can be a
- * String, a character array, a StringBuffer, a Reader or an
- * InputStream of some sort.  Note that when using a Reader or
+ * String, a character array, a StringBuffer, any other CharSequence,
+ * a Reader or an InputStream of some sort.  Note that when using a Reader or
  * InputStream, the stream read position cannot be guaranteed after
  * attempting a match (this is not a bug, but a consequence of the way
  * regular expressions work).  Using an REMatchEnumeration can
@@ -1331,6 +1331,8 @@ public class RE extends REToken {
       return new CharIndexedCharArray((char[]) input,index);
     else if (input instanceof StringBuffer)
       return new CharIndexedStringBuffer((StringBuffer) input,index);
+    else if (input instanceof CharSequence)
+      return new CharIndexedCharSequence((CharSequence) input,index);
     else if (input instanceof InputStream)
       return new CharIndexedInputStream((InputStream) input,index);
     else if (input instanceof Reader)
@@ -29,6 +29,14 @@ public abstract class AbstractLine implements Line
     private int hidden;
     private Annotation annotation;
 
+    // Incremented whenever any line is hidden or shown.
+    private static int hiddenModCount;
+
+    public static final int getHiddenModCount()
+    {
+        return hiddenModCount;
+    }
+
     public final synchronized Line previous()
     {
         return prev;
@@ -167,11 +175,13 @@ public abstract class AbstractLine implements Line
     public final void hide()
     {
         ++hidden;
+        ++hiddenModCount;
     }
 
     public final void unhide()
     {
         --hidden;
+        ++hiddenModCount;
         if (Editor.isDebugEnabled() && hidden < 0)
             Debug.bug("hidden < 0");
     }
@@ -179,6 +189,7 @@ public abstract class AbstractLine implements Line
     public final void show()
     {
         hidden = 0;
+        ++hiddenModCount;
     }
 
     public final int getHidden()
@@ -189,6 +200,7 @@ public abstract class AbstractLine implements Line
     public final void setHidden(int hidden)
     {
         this.hidden = hidden;
+        ++hiddenModCount;
     }
 
     public final synchronized Line previousVisible()
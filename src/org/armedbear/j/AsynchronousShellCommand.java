@@ -24,7 +24,6 @@ package org.armedbear.j;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
-import javax.swing.SwingUtilities;
 
 public final class AsynchronousShellCommand implements Constants, Runnable
 {
@@ -122,28 +121,24 @@ public final class AsynchronousShellCommand implements Constants, Runnable
         }
     }
 
-    private void appendLater(final String s)
-    {
-        Runnable runnable = new Runnable() {
-            public void run()
-            {
-                outputBuffer.insertString(posEndOfBuffer, s);
-                if (outputBuffer.needsRenumbering())
-                    outputBuffer.renumber();
-                outputBuffer.enforceOutputLimit(Property.SHELL_OUTPUT_LIMIT);
-                for (EditorIterator it = new EditorIterator(); it.hasNext();) {
-                    Editor ed = it.nextEditor();
-                    if (ed.getBuffer() == outputBuffer) {
-                        ed.eob();
-                        ed.getDisplay().setReframe(-2);
-                        ed.setUpdateFlag(REPAINT);
-                        ed.updateDisplay();
-                    }
+    private final OutputBatcher outputBatcher = new OutputBatcher() {
+        protected void flush(String s)
+        {
+            outputBuffer.insertString(posEndOfBuffer, s);
+            if (outputBuffer.needsRenumbering())
+                outputBuffer.renumber();
+            outputBuffer.enforceOutputLimit(Property.SHELL_OUTPUT_LIMIT);
+            for (EditorIterator it = new EditorIterator(); it.hasNext();) {
+                Editor ed = it.nextEditor();
+                if (ed.getBuffer() == outputBuffer) {
+                    ed.eob();
+                    ed.getDisplay().setReframe(-2);
+                    ed.setUpdateFlag(REPAINT);
+                    ed.updateDisplay();
                 }
             }
-        };
-        SwingUtilities.invokeLater(runnable);
-    }
+        }
+    };
 
     private class ShellCommandReaderThread extends ReaderThread
     {
@@ -154,7 +149,7 @@ public final class AsynchronousShellCommand implements Constants, Runnable
 
         public void update(final String s)
         {
-            appendLater(s);
+            outputBatcher.append(s);
         }
     }
 
@@ -142,6 +142,7 @@ public final class Autosave implements Constants
         File autosaveFile = File.getInstance(getAutosaveDirectory(), alias);
         if (!autosaveFile.exists()) {
             // Nothing we can do.
+            AutosaveJournal.delete(autosaveFile);
             catalog.remove(netPath);
             return;
         }
@@ -159,6 +160,8 @@ public final class Autosave implements Constants
                 confirmed = true;
         }
         if (confirmed) {
+            // Apply the changes made since the last checkpoint.
+            AutosaveJournal.replay(autosaveFile);
             if (file.isRemote()) {
                 String recoverPath = file.getHostName() + '/' + file.canonicalPath();
                 Log.debug("recoverPath = |" + recoverPath + "|");
@@ -195,6 +198,7 @@ public final class Autosave implements Constants
             int response = ConfirmDialog.showConfirmDialog(null, prompt, "Autosave");
             if (response == RESPONSE_YES) {
                 autosaveFile.delete();
+                AutosaveJournal.delete(autosaveFile);
                 catalog.remove(netPath);
             }
         }
@@ -0,0 +1,269 @@
+/*
+ * AutosaveJournal.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// The changes made to a buffer since its autosave file was last written.
+//
+// The autosave file itself is a checkpoint: a complete copy of the buffer,
+// written the usual way. After that, each autosave just appends a record to
+// the journal saying which lines have been replaced and what the new ones
+// are. When the journal gets too long, the next autosave writes a new
+// checkpoint and starts a new journal. Autosave.recover() calls replay() to
+// bring the autosave file up to date before it is used.
+public final class AutosaveJournal
+{
+    // Version of journal file format.
+    private static final int VERSION = 1;
+
+    // A new checkpoint is written when the journal has this many records...
+    private static final int MAX_RECORDS = 100;
+
+    // ...or is this many bytes long.
+    private static final long MAX_LENGTH = 0x100000;
+
+    private final File journalFile;
+    private String encoding;
+    private String lineSeparator;
+    private int checkpointLineCount;
+    private int recordCount;
+
+    // Number of lines in the buffer as of the last record.
+    private int lineCount;
+
+    public AutosaveJournal(File autosaveFile)
+    {
+        journalFile = getJournalFile(autosaveFile);
+    }
+
+    private static File getJournalFile(File autosaveFile)
+    {
+        return File.getInstance(autosaveFile.getParentFile(),
+                                autosaveFile.getName().concat(".journal"));
+    }
+
+    // Called after a checkpoint has been written. Nothing is written to the
+    // journal file until there's a change to record.
+    public void reset(String encoding, String lineSeparator, int lineCount)
+    {
+        journalFile.delete();
+        this.encoding = encoding;
+        this.lineSeparator = lineSeparator;
+        checkpointLineCount = lineCount;
+        this.lineCount = lineCount;
+        recordCount = 0;
+    }
+
+    // Returns true if it's time for a new checkpoint.
+    public boolean isFull()
+    {
+        return recordCount >= MAX_RECORDS || journalFile.length() >= MAX_LENGTH;
+    }
+
+    // Number of lines in the buffer as of the last checkpoint or record.
+    public int getLineCount()
+    {
+        return lineCount;
+    }
+
+    // Records that oldCount lines starting with line number from have been
+    // replaced by the newCount lines starting with first. Returns false if
+    // the record couldn't be written, in which case a new checkpoint is
+    // needed.
+    public boolean append(int from, int oldCount, Line first, int newCount)
+    {
+        final boolean needsHeader = !journalFile.isFile();
+        try {
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(journalFile.getOutputStream(true)));
+            try {
+                if (needsHeader) {
+                    out.writeInt(VERSION);
+                    out.writeUTF(encoding);
+                    out.writeUTF(lineSeparator);
+                    out.writeInt(checkpointLineCount);
+                }
+                out.writeInt(from);
+                out.writeInt(oldCount);
+                out.writeInt(newCount);
+                Line line = first;
+                for (int i = 0; i < newCount; i++) {
+                    byte[] bytes = line.getText().getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    line = line.next();
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (Exception e) {
+            Log.error(e);
+            return false;
+        }
+        lineCount += newCount - oldCount;
+        ++recordCount;
+        return true;
+    }
+
+    public void delete()
+    {
+        journalFile.delete();
+    }
+
+    public static void delete(File autosaveFile)
+    {
+        getJournalFile(autosaveFile).delete();
+    }
+
+    // Applies the journal for autosaveFile (if there is one) to autosaveFile,
+    // and deletes it. A record that was only partly written is ignored.
+    public static void replay(File autosaveFile)
+    {
+        File journalFile = getJournalFile(autosaveFile);
+        if (!journalFile.isFile())
+            return;
+        try {
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(journalFile.getInputStream()));
+            try {
+                if (in.readInt() != VERSION) {
+                    Log.error("AutosaveJournal.replay wrong version");
+                    return;
+                }
+                final String encoding = in.readUTF();
+                final String separator = in.readUTF();
+                final int checkpointLineCount = in.readInt();
+                List lines = readLines(autosaveFile, encoding, separator);
+                if (lines.size() != checkpointLineCount) {
+                    Log.error("AutosaveJournal.replay checkpoint doesn't match journal");
+                    return;
+                }
+                int count = 0;
+                while (applyRecord(in, lines))
+                    ++count;
+                Log.debug("AutosaveJournal.replay " + count + " records");
+                writeLines(autosaveFile, lines, encoding, separator);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            Log.error(e);
+            return;
+        }
+        journalFile.delete();
+    }
+
+    // Returns false at the end of the journal.
+    private static boolean applyRecord(DataInputStream in, List lines)
+        throws IOException
+    {
+        final String[] newLines;
+        final int from;
+        final int oldCount;
+        try {
+            from = in.readInt();
+            oldCount = in.readInt();
+            final int newCount = in.readInt();
+            if (from < 0 || oldCount < 0 || newCount < 0 ||
+                from + oldCount > lines.size()) {
+                Log.error("AutosaveJournal.applyRecord invalid record");
+                return false;
+            }
+            newLines = new String[newCount];
+            for (int i = 0; i < newCount; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                newLines[i] = new String(bytes, "UTF-8");
+            }
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        List range = lines.subList(from, from + oldCount);
+        range.clear();
+        for (int i = 0; i < newLines.length; i++)
+            range.add(newLines[i]);
+        return true;
+    }
+
+    // Splits the text of the checkpoint the same way SystemBuffer.writeFile()
+    // joined it.
+    private static List readLines(File file, String encoding,
+        String separator) throws IOException
+    {
+        InputStream in = file.getInputStream();
+        byte[] bytes = new byte[(int) file.length()];
+        int total = 0;
+        try {
+            int n;
+            while (total < bytes.length &&
+                   (n = in.read(bytes, total, bytes.length - total)) > 0)
+                total += n;
+        }
+        finally {
+            in.close();
+        }
+        String text = new String(bytes, 0, total, encoding);
+        if (text.length() > 0 && text.charAt(0) == '\ufeff')
+            text = text.substring(1); // Byte order mark.
+        ArrayList lines = new ArrayList();
+        int begin = 0;
+        int end;
+        while ((end = text.indexOf(separator, begin)) >= 0) {
+            lines.add(text.substring(begin, end));
+            begin = end + separator.length();
+        }
+        lines.add(text.substring(begin));
+        return lines;
+    }
+
+    private static void writeLines(File file, List lines, String encoding,
+        String separator) throws IOException
+    {
+        FastStringBuffer sb = new FastStringBuffer();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0)
+                sb.append(separator);
+            sb.append((String) lines.get(i));
+        }
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(sb.toString().getBytes(encoding));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
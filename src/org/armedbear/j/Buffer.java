@@ -55,7 +55,23 @@ public class Buffer extends SystemBuffer
 
     private boolean needsParsing;
 
-    boolean needsRenumbering;
+    // Lines parseFrom through parseTo have changed since the buffer was last
+    // parsed. parseTo is Integer.MAX_VALUE if the end of the change is not
+    // known.
+    private int parseFrom;
+    private int parseTo = Integer.MAX_VALUE;
+
+    // Lines affected by the change currently being reported to modified(),
+    // or -1 if not known.
+    private int changedFrom = -1;
+    private int changedTo;
+
+    private boolean needsRenumbering;
+
+    // Number of the first line that may have moved since the buffer was last
+    // renumbered, or -1 if no change has been reported, in which case
+    // renumber() visits every line.
+    private int renumberFrom = -1;
 
     public final boolean needsRenumbering()
     {
@@ -65,6 +81,23 @@ public class Buffer extends SystemBuffer
     public final void needsRenumbering(boolean b)
     {
         needsRenumbering = b;
+        renumberFrom = b ? 0 : -1;
+    }
+
+    // Lines before lineNumber have not moved, so renumber() doesn't need to
+    // visit them.
+    public final void needsRenumberingFrom(int lineNumber)
+    {
+        lineMoved(lineNumber);
+        needsRenumbering = true;
+    }
+
+    private void lineMoved(int lineNumber)
+    {
+        if (lineNumber < 0)
+            lineNumber = 0;
+        if (renumberFrom < 0 || lineNumber < renumberFrom)
+            renumberFrom = lineNumber;
     }
 
     private int visibleLineCount;
@@ -83,6 +116,16 @@ public class Buffer extends SystemBuffer
     protected boolean autosaveEnabled;
     private File autosaveFile;
     private int autosaveModCount; // Value of modCount when last autosaved.
+    private AutosaveJournal journal; // Null until a checkpoint is written.
+
+    // Lines changed since the last autosave, for the journal. If journalValid
+    // is false, there have been changes that weren't reported with a range
+    // of lines, so the next autosave needs to write a checkpoint.
+    private boolean journalValid;
+    private boolean reportingRange;
+    private int journalFrom = Integer.MAX_VALUE; // First changed line.
+    private int journalSuffix = Integer.MAX_VALUE; // Unchanged lines at end.
+    private int journalLast = -1; // Waiting for renumber().
 
     private File cache;
     private String listing;
@@ -319,7 +362,12 @@ public class Buffer extends SystemBuffer
             }
         }
         // Normal case.
-        Buffer buffer = new Buffer(file);
+        Buffer buffer;
+        if (cache == null && compression == null &&
+            LargeFileBuffer.isLargeFile(file))
+            buffer = new LargeFileBuffer(file);
+        else
+            buffer = new Buffer(file);
         Debug.assertTrue(Editor.getBufferList().contains(buffer));
         buffer.setFileType(fileType);
         buffer.setCache(cache);
@@ -349,6 +397,8 @@ public class Buffer extends SystemBuffer
                 return sendMailMode.createBuffer(file);
         }
         // Normal case.
+        if (LargeFileBuffer.isLargeFile(file))
+            return new LargeFileBuffer(file);
         return new Buffer(file);
     }
 
@@ -756,15 +806,21 @@ public class Buffer extends SystemBuffer
     public final synchronized void setModCount(int count)
     {
         if (count != modCount) {
+            if (!reportingRange)
+                journalValid = false; // Undo, for example.
             modCount = count;
             srText = null;
+            lineIndex.invalidateOffsets();
         }
     }
 
     public final synchronized void incrementModCount()
     {
+        if (!reportingRange)
+            journalValid = false;
         ++modCount;
         srText = null;
+        lineIndex.invalidateOffsets();
     }
 
     public final void setModCountWhenLastSaved(int count)
@@ -2001,17 +2057,58 @@ public class Buffer extends SystemBuffer
             Autosave.put(getFile().netPath(), autosaveFile.getName());
             Autosave.flush();
         }
-        autosaveFile.setEncoding(getFile().getEncoding());
-        if (writeFile(autosaveFile))
+        if (journal != null && appendToJournal()) {
             autosaveModCount = modCount;
-        else
+            return;
+        }
+        // Write a new checkpoint.
+        if (journal == null)
+            journal = new AutosaveJournal(autosaveFile);
+        journal.delete();
+        String encoding = getFile().getEncoding();
+        autosaveFile.setEncoding(encoding);
+        if (writeFile(autosaveFile)) {
+            autosaveModCount = modCount;
+            if (encoding == null)
+                encoding = getSaveEncoding();
+            journal.reset(encoding, lineSeparator, lineCount);
+            journalValid = !needsRenumbering;
+            journalFrom = journalSuffix = Integer.MAX_VALUE;
+            journalLast = -1;
+        } else
             Log.error("autosave writeFile failed");
     }
 
+    // Returns false if a checkpoint is needed instead.
+    private boolean appendToJournal()
+    {
+        if (!journalValid || journalLast >= 0 || needsRenumbering ||
+            journal.isFull())
+            return false;
+        if (journalFrom != Integer.MAX_VALUE) {
+            final int oldCount =
+                journal.getLineCount() - journalSuffix - journalFrom;
+            final int newCount = lineCount - journalSuffix - journalFrom;
+            if (oldCount < 0 || newCount < 0)
+                return false; // Shouldn't happen.
+            Line first = getLine(journalFrom);
+            if (first == null && newCount > 0)
+                return false;
+            if (!journal.append(journalFrom, oldCount, first, newCount))
+                return false;
+            journalFrom = journalSuffix = Integer.MAX_VALUE;
+        }
+        return true;
+    }
+
     public void deleteAutosaveFile()
     {
         if (autosaveFile != null)
             autosaveFile.delete();
+        if (journal != null) {
+            journal.delete();
+            journal = null;
+        }
     }
 
     public void setFirstLine(Line line)
@@ -2021,6 +2118,15 @@ public class Buffer extends SystemBuffer
             Debug.dumpStack();
         }
         super.setFirstLine(line);
+        lineIndex.invalidate();
+    }
+
+    protected void appendLine(Line line)
+    {
+        super.appendLine(line);
+        // Output buffers call renumber() after appending lines whether or not
+        // they've been told it's needed.
+        lineMoved(lineCount);
     }
 
     public void modified()
@@ -2041,6 +2147,62 @@ public class Buffer extends SystemBuffer
         invalidate();
     }
 
+    // Like modified(), for a change confined to the text of line.
+    public final void modified(Line line)
+    {
+        if (needsRenumbering)
+            modified();
+        else
+            modified(line.lineNumber(), line.lineNumber(), false);
+    }
+
+    // Like modified(), for a change confined to lines first through last (as
+    // numbered before the change). If linesMoved is true, lines have been
+    // inserted or removed there too.
+    final void modified(int first, int last, boolean linesMoved)
+    {
+        if (linesMoved && needsParsing && parseTo >= first)
+            parseTo = Integer.MAX_VALUE;
+        changedFrom = first;
+        changedTo = last;
+        reportingRange = journalLast < 0;
+        try {
+            modified();
+        }
+        finally {
+            changedFrom = -1;
+            reportingRange = false;
+        }
+        if (journalValid && journalLast < 0) {
+            if (first < journalFrom)
+                journalFrom = first;
+            // The lines after last haven't changed. If lines have been
+            // inserted or removed, lineCount won't be right until the buffer
+            // has been renumbered.
+            if (linesMoved)
+                journalLast = last;
+            else if (lineCount - 1 - last < journalSuffix)
+                journalSuffix = lineCount - 1 - last;
+        } else
+            journalValid = false;
+    }
+
+    // Called when lines have been added to the end of the buffer from the
+    // file, without the buffer being modified. first is the number of the
+    // first new line.
+    final void linesAppended(int first)
+    {
+        journalValid = false;
+        changedFrom = first;
+        changedTo = Integer.MAX_VALUE;
+        try {
+            invalidate();
+        }
+        finally {
+            changedFrom = -1;
+        }
+    }
+
     public void unmodified()
     {
         setModCount(0);
@@ -2109,8 +2271,20 @@ public class Buffer extends SystemBuffer
 
     public void invalidate()
     {
+        final int first = changedFrom >= 0 ? changedFrom : 0;
+        final int last = changedFrom >= 0 ? changedTo : Integer.MAX_VALUE;
+        if (needsParsing) {
+            if (first < parseFrom)
+                parseFrom = first;
+            if (last > parseTo)
+                parseTo = last;
+        } else {
+            parseFrom = first;
+            parseTo = last;
+        }
         needsParsing = true;
         maxColsValid = false;
+        lineIndex.invalidateWidths(first, last);
         setTags(null);
         setMark(null);
     }
@@ -2172,6 +2346,22 @@ public class Buffer extends SystemBuffer
     public final void setNeedsParsing(boolean b)
     {
         needsParsing = b;
+        parseFrom = 0;
+        parseTo = Integer.MAX_VALUE;
+    }
+
+    // Returns the number of the first line that has changed since the buffer
+    // was last parsed.
+    public final int getParseFrom()
+    {
+        return parseFrom;
+    }
+
+    // Returns the number of the last line that has changed since the buffer
+    // was last parsed, or Integer.MAX_VALUE if not known.
+    public final int getParseTo()
+    {
+        return parseTo;
     }
 
     public boolean isModified()
@@ -2179,10 +2369,25 @@ public class Buffer extends SystemBuffer
         return modCount != saveModCount;
     }
 
+    // Index of lines by line number, rebuilt by renumber().
+    private final LineIndex lineIndex = new LineIndex();
+
+    // Returns the line index if it reflects the current state of the buffer,
+    // otherwise null.
+    private LineIndex getLineIndex()
+    {
+        if (needsRenumbering || renumberFrom >= 0 || !lineIndex.isValid())
+            return null;
+        return lineIndex;
+    }
+
     public Line getLine(int lineNumber)
     {
         if (lineNumber < 0)
             return null;
+        final LineIndex index = getLineIndex();
+        if (index != null)
+            return index.getLine(lineNumber);
         int n = 0;
         Line line = getFirstLine();
         while (line != null && n != lineNumber) {
@@ -2204,6 +2409,15 @@ public class Buffer extends SystemBuffer
     {
         if (offset < 0)
             offset = 0;
+        final LineIndex index = getLineIndex();
+        if (index != null && index.canFindOriginal()) {
+            final Line line = index.findOriginal(lineNumber);
+            if (line == null)
+                return getEnd();
+            if (line.originalLineNumber() == lineNumber)
+                return new Position(line, Math.min(offset, line.length()));
+            return new Position(line, 0);
+        }
         Line line = getFirstLine();
         while (line != null && line.originalLineNumber() != lineNumber)
             line = line.next();
@@ -2225,6 +2439,12 @@ public class Buffer extends SystemBuffer
     public int getAbsoluteOffset(Position pos)
     {
         Line targetLine = pos.getLine();
+        final LineIndex index = getLineIndex();
+        if (index != null) {
+            final int start = index.getStartOffset(targetLine);
+            if (start >= 0)
+                return start + pos.getOffset();
+        }
         int offset = 0;
         Line line = getFirstLine();
         while (line != null && line != targetLine) {
@@ -2240,6 +2460,9 @@ public class Buffer extends SystemBuffer
     // Convert absolute character offset from start of buffer into position.
     public Position getPosition(int goal)
     {
+        final LineIndex index = getLineIndex();
+        if (index != null && goal >= 0)
+            return index.getPosition(goal);
         int offset = 0;
         Line line = getFirstLine();
         while (line != null) {
@@ -2282,6 +2505,11 @@ public class Buffer extends SystemBuffer
         return undoManager;
     }
 
+    public final UndoStore getUndoStore()
+    {
+        return undoManager != null ? undoManager.getUndoStore() : null;
+    }
+
     public final void addEdit(UndoableEdit edit)
     {
         if (undoManager != null)
@@ -2441,7 +2669,7 @@ public class Buffer extends SystemBuffer
             sb.append(text.substring(pos.getOffset()));
             pos.getLine().setText(sb.toString());
             pos.skip(length);
-            modified();
+            modified(pos.getLine());
         }
     }
 
@@ -2449,6 +2677,7 @@ public class Buffer extends SystemBuffer
     {
         final Line line = pos.getLine();
         final int offset = pos.getOffset();
+        final int lineNumber = needsRenumbering ? -1 : line.lineNumber();
         if (offset == 0) {
             final Line newLine = new TextLine("");
             newLine.setNew(true);
@@ -2498,8 +2727,11 @@ public class Buffer extends SystemBuffer
                 nextLine.setPrevious(newLine);
             pos.moveTo(newLine, 0);
         }
-        needsRenumbering = true;
-        modified();
+        needsRenumberingFrom(line.lineNumber());
+        if (lineNumber >= 0)
+            modified(lineNumber, lineNumber + 1, true);
+        else
+            modified();
         repaint();
     }
 
@@ -2661,41 +2893,43 @@ public class Buffer extends SystemBuffer
 
     public final void renumber()
     {
-        folded = false;
-        lineCount = 0;
-        visibleLineCount = 0;
-        for (Line line = getFirstLine(); line != null; line = line.next()) {
-            line.setLineNumber(lineCount++);
-            if (line.isHidden())
-                folded = true;
-            else
-                ++visibleLineCount;
-        }
+        lineIndex.renumber(getFirstLine(), renumberFrom > 0 ? renumberFrom : 0);
+        lineCount = lineIndex.size();
+        visibleLineCount = lineIndex.getVisibleLineCount();
+        folded = visibleLineCount != lineCount;
         needsRenumbering = false;
+        renumberFrom = -1;
+        if (journalLast >= 0) {
+            if (lineCount - 1 - journalLast < journalSuffix)
+                journalSuffix = lineCount - 1 - journalLast;
+            journalLast = -1;
+        }
     }
 
     protected void renumberOriginal()
     {
-        folded = false;
-        lineCount = 0;
-        visibleLineCount = 0;
-        for (Line line = getFirstLine(); line != null; line = line.next()) {
-            line.setOriginalLineNumber(lineCount);
-            line.setLineNumber(lineCount++);
-            if (line.isHidden())
-                folded = true;
-            else
-                ++visibleLineCount;
-        }
+        journalValid = false;
+        int n = 0;
+        for (Line line = getFirstLine(); line != null; line = line.next())
+            line.setOriginalLineNumber(n++);
+        lineIndex.renumber(getFirstLine(), 0);
+        lineCount = lineIndex.size();
+        visibleLineCount = lineIndex.getVisibleLineCount();
+        folded = visibleLineCount != lineCount;
         needsRenumbering = false;
+        renumberFrom = -1;
     }
 
+    // Lines are taken off the top in batches: nothing is done until the
+    // buffer is an eighth over the limit, and then it's cut back to the
+    // limit. Otherwise a process that writes a lot would have the whole
+    // buffer renumbered for every chunk of output once it reached the limit.
     protected void enforceOutputLimit(Property property)
     {
         Debug.assertTrue(property != null);
         final int outputLimit =
             Editor.preferences().getIntegerProperty(property);
-        if (outputLimit == 0 || lineCount <= outputLimit)
+        if (outputLimit == 0 || lineCount <= outputLimit + outputLimit / 8)
             return;
         try {
             lockWrite();
@@ -2755,6 +2989,8 @@ public class Buffer extends SystemBuffer
 
     public void dispose()
     {
+        if (undoManager != null)
+            undoManager.getUndoStore().dispose();
         if (cache != null && cache.isFile()) {
             // Only delete the cache file if no other buffer is using it.
             for (BufferIterator it = new BufferIterator(); it.hasNext();) {
@@ -2834,6 +3070,29 @@ public class Buffer extends SystemBuffer
     // Cache for getText().
     private SoftReference srText;
 
+    // Words in the buffer, for Expansion.
+    private WordIndex wordIndex;
+
+    public final synchronized void releaseTextCache()
+    {
+        srText = null;
+        // The word index is built again if it's needed.
+        wordIndex = null;
+    }
+
+    public final synchronized WordIndex getWordIndex()
+    {
+        if (wordIndex == null)
+            wordIndex = new WordIndex(this);
+        return wordIndex;
+    }
+
+    // Returns null if the buffer doesn't have a word index.
+    public final synchronized WordIndex getExistingWordIndex()
+    {
+        return wordIndex;
+    }
+
     // Never returns null.
     public synchronized String getText()
     {
@@ -2863,6 +3122,20 @@ public class Buffer extends SystemBuffer
         return text;
     }
 
+    // Like getText(), but the text is read from the lines of the buffer as
+    // it's needed instead of being copied, if the line index is up to date.
+    // The result must not be used after the buffer has been modified.
+    public synchronized CharSequence getCharSequence()
+    {
+        final LineIndex index = getLineIndex();
+        if (index != null) {
+            final int length = index.getTextLength();
+            if (length >= 0)
+                return new BufferCharSequence(index, 0, length);
+        }
+        return getText();
+    }
+
     public boolean isEmpty()
     {
         Line first = getFirstLine();
@@ -2884,6 +3157,9 @@ public class Buffer extends SystemBuffer
         Debug.assertTrue(!line.isHidden());
         if (folded) {
             final int charHeight = Display.getCharHeight();
+            final LineIndex index = getLineIndex();
+            if (index != null && index.contains(line, line.lineNumber()))
+                return index.getVisibleLineNumber(line.lineNumber()) * charHeight;
             int y = 0;
             for (Line l = getFirstLine(); l != null; l = l.nextVisible()) {
                 if (l == line)
@@ -2896,6 +3172,45 @@ public class Buffer extends SystemBuffer
             return line.lineNumber() * Display.getCharHeight();
     }
 
+    // Returns the visible line at y (the inverse of getY()), or the last
+    // visible line if y is past the end of the buffer.
+    public Line getLineAtY(int y)
+    {
+        final int n = y > 0 ? y / Display.getCharHeight() : 0;
+        final LineIndex index = getLineIndex();
+        if (index != null) {
+            final int count = index.getVisibleLineCount();
+            if (count > 0)
+                return index.getVisibleLine(Math.min(n, count - 1));
+        }
+        Line line = getFirstLine();
+        if (line != null) {
+            for (int i = 0; i < n; i++) {
+                Line next = line.nextVisible();
+                if (next == null)
+                    break;
+                line = next;
+            }
+        }
+        return line;
+    }
+
+    // Returns the line number of the first hidden line at or after
+    // lineNumber, or -1 if there is no such line.
+    public int findHiddenLine(int lineNumber)
+    {
+        final LineIndex index = getLineIndex();
+        if (index != null)
+            return index.findHiddenLine(lineNumber);
+        Line line = getLine(lineNumber);
+        int n = lineNumber;
+        while (line != null && !line.isHidden()) {
+            line = line.next();
+            ++n;
+        }
+        return line != null ? n : -1;
+    }
+
     public int getDisplayWidth()
     {
         return Display.getGutterWidth(this) +
@@ -2919,10 +3234,16 @@ public class Buffer extends SystemBuffer
         if (getModeId() == BINARY_MODE)
             return getFirstLine().length();
         final int tabWidth = getTabWidth();
+        final LineIndex index = getLineIndex();
+        if (index != null) {
+            final int width = index.getMaximumWidth(tabWidth);
+            if (width >= 0)
+                return width;
+        }
         int max = 0;
         for (Line line = getFirstLine(); line != null; line = line.next()) {
             int cols;
-            if ((cols = getCol(line, line.length(), tabWidth)) > max)
+            if ((cols = LineIndex.getWidth(line, tabWidth)) > max)
                 max = cols;
         }
         return max;
@@ -2933,6 +3254,10 @@ public class Buffer extends SystemBuffer
     {
         if (maxColsValid)
             return false;
+        // Wait for the buffer to be renumbered, so the widths of the lines that
+        // haven't changed don't have to be measured again.
+        if (needsRenumbering)
+            return false;
         final int oldMaxCols = maxCols;
         maxCols = calculateMaximumColumns();
         maxColsValid = true;
@@ -3091,7 +3416,7 @@ public class Buffer extends SystemBuffer
 
     public Expansion getExpansion(Position dot)
     {
-        return new Expansion(dot, mode);
+        return new Expansion(this, dot, mode);
     }
 
     public void restoreView(Editor editor)
@@ -0,0 +1,105 @@
+/*
+ * BufferCharSequence.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+// The text of a buffer as a CharSequence, with a single '\n' between lines
+// (like Buffer.getText()), read directly from the lines of the buffer instead
+// of being copied into a string. Offsets are absolute offsets in the buffer,
+// as returned by Buffer.getAbsoluteOffset().
+//
+// The sequence reflects the buffer as it was when it was created, so it must
+// not be used after the buffer has been modified.
+public final class BufferCharSequence implements CharSequence
+{
+    private final LineIndex index;
+    private final int begin;
+    private final int length;
+
+    // The line most recently looked at, and the absolute offsets of its start
+    // and its line separator.
+    private String text;
+    private int lineStart = -1;
+    private int lineEnd = -1;
+
+    BufferCharSequence(LineIndex index, int begin, int end)
+    {
+        this.index = index;
+        this.begin = begin;
+        this.length = end - begin;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int i)
+    {
+        if (i < 0 || i >= length)
+            throw new IndexOutOfBoundsException(String.valueOf(i));
+        final int offset = begin + i;
+        if (offset < lineStart || offset > lineEnd)
+            findLine(offset);
+        if (offset == lineEnd)
+            return '\n';
+        return text.charAt(offset - lineStart);
+    }
+
+    private void findLine(int offset)
+    {
+        final int lineNumber = index.findLine(offset);
+        final Line line = index.getLine(lineNumber);
+        if (line == null)
+            throw new IndexOutOfBoundsException(String.valueOf(offset - begin));
+        text = line.getText();
+        if (text == null)
+            text = "";
+        lineStart = index.getStartOffset(lineNumber);
+        lineEnd = lineStart + text.length();
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException();
+        return new BufferCharSequence(index, begin + start, begin + end);
+    }
+
+    public String toString()
+    {
+        FastStringBuffer sb = new FastStringBuffer(length);
+        int i = 0;
+        while (i < length) {
+            final int offset = begin + i;
+            if (offset < lineStart || offset > lineEnd)
+                findLine(offset);
+            if (offset == lineEnd) {
+                sb.append('\n');
+                ++i;
+            } else {
+                final int end = Math.min(lineEnd, begin + length);
+                sb.append(text.substring(offset - lineStart, end - lineStart));
+                i += end - offset;
+            }
+        }
+        return sb.toString();
+    }
+}
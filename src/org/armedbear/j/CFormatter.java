@@ -344,13 +344,16 @@ public final class CFormatter extends Formatter implements Constants
     {
         int state = STATE_NEUTRAL;
         boolean continued = false;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         boolean changed = false;
         while (line != null) {
             int oldflags = line.flags();
             // Quoted strings can't span lines in C.
             if (state == STATE_QUOTE && !continued)
                 state = STATE_NEUTRAL;
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
@@ -252,12 +252,15 @@ public final class CSSFormatter extends Formatter implements Constants
     public boolean parseBuffer()
     {
         int state = 0;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(0);
+        final int last = getLastLineToParse();
         boolean changed = false;
         while (line != null) {
             int oldflags = line.flags();
             // Quoted strings can't span lines. (Can they?)
             state &= ~(CSS_STATE_QUOTE | CSS_STATE_SINGLEQUOTE);
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
@@ -21,6 +21,7 @@
 
 package org.armedbear.j;
 
+import java.io.IOException;
 import javax.swing.undo.CompoundEdit;
 
 public final class ChangeMarks implements Constants
@@ -189,6 +190,7 @@ public final class ChangeMarks implements Constants
             buffer.setFirstLine(next);
         if (next != null)
             next.setPrevious(prev);
+        buffer.needsRenumberingFrom(dotLine.lineNumber());
         buffer.renumber();
         buffer.modified();
         editor.endCompoundEdit(compoundEdit);
@@ -238,68 +240,46 @@ public final class ChangeMarks implements Constants
         }
     }
 
+    // Shows the changes that haven't been saved, as diff -u would.
     public static void changes()
     {
         final Editor editor = Editor.currentEditor();
         final Buffer buffer = editor.getBuffer();
         final File file = buffer.getFile();
-        if (file == null || file.isRemote())
+        if (file == null || file.isRemote() || !file.isFile())
             return;
-        final File tempFile = Utilities.getTempFile();
-        if (tempFile == null)
+        final String name = file.canonicalPath();
+        final String output;
+        try {
+            String[] lines0 = Diff.getLines(file, buffer.getSaveEncoding());
+            String[] lines1 = Diff.getLines(buffer);
+            output = Diff.unified(name, file, lines0, name, null, lines1, 3);
+        }
+        catch (IOException e) {
+            Log.error(e);
             return;
-        if (buffer.writeFile(tempFile)) {
-            FastStringBuffer sb = new FastStringBuffer("diff -u ");
-            // Enclose filenames in double quotes if they contain embedded
-            // spaces.
-            String name1 = file.canonicalPath();
-            if (name1.indexOf(' ') >= 0) {
-                sb.append('"');
-                sb.append(name1);
-                sb.append('"');
-            } else
-                sb.append(name1);
-            sb.append(' ');
-            String name2 = tempFile.canonicalPath();
-            if (name2.indexOf(' ') >= 0) {
-                sb.append('"');
-                sb.append(name2);
-                sb.append('"');
-            } else
-                sb.append(name2);
-            final String cmd = sb.toString();
-            ShellCommand shellCommand = new ShellCommand(cmd);
-            shellCommand.run();
-            // Kill existing diff output buffer if any for same parent buffer.
-            for (BufferIterator it = new BufferIterator(); it.hasNext();) {
-                Buffer b = it.nextBuffer();
-                if (b instanceof DiffOutputBuffer) {
-                    if (((DiffOutputBuffer)b).getParentBuffer() == buffer) {
-                        if (((DiffOutputBuffer)b).getVCType() == 0) {
-                            b.kill();
-                            break; // There should be one at most.
-                        }
+        }
+        // Kill existing diff output buffer if any for same parent buffer.
+        for (BufferIterator it = new BufferIterator(); it.hasNext();) {
+            Buffer b = it.nextBuffer();
+            if (b instanceof DiffOutputBuffer) {
+                if (((DiffOutputBuffer)b).getParentBuffer() == buffer) {
+                    if (((DiffOutputBuffer)b).getVCType() == 0) {
+                        b.kill();
+                        break; // There should be one at most.
                     }
                 }
             }
-            String output = shellCommand.getOutput();
-            if (output.length() == 0) {
-                MessageDialog.showMessageDialog(editor, "No changes",
-                    buffer.getFile().getName());
-            } else {
-                DiffOutputBuffer outputBuffer =
-                    new DiffOutputBuffer(buffer, output, 0);
-                sb.setLength(0);
-                sb.append("diff -ub ");
-                sb.append(file.getName());
-                sb.append(' ');
-                sb.append(tempFile.canonicalPath());
-                outputBuffer.setTitle(sb.toString());
-                editor.makeNext(outputBuffer);
-                editor.activateInOtherWindow(outputBuffer);
-            }
         }
-        if (tempFile.isFile())
-            tempFile.delete();
+        if (output.length() == 0) {
+            MessageDialog.showMessageDialog(editor, "No changes",
+                buffer.getFile().getName());
+        } else {
+            DiffOutputBuffer outputBuffer =
+                new DiffOutputBuffer(buffer, output, 0);
+            outputBuffer.setTitle("diff -u " + file.getName());
+            editor.makeNext(outputBuffer);
+            editor.activateInOtherWindow(outputBuffer);
+        }
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * ChangeMarksTask.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.SwingUtilities;
+
+// Makes the change marks in the gutter exact.
+//
+// The marks come from flags that are set on a line by whatever edits it, so
+// a line that is deleted and typed in again, or a block that is cut and
+// pasted back where it was, stays marked although it's just as it was when
+// the buffer was saved. After a pause in editing, this task compares the
+// current buffer with its file and clears the flags of the lines that the
+// comparison says haven't changed.
+public final class ChangeMarksTask extends IdleThreadTask
+{
+    // The buffer and modification count we last looked at.
+    private WeakReference lastBuffer;
+    private int lastModCount;
+
+    // The lines of the file we last read.
+    private File savedFile;
+    private long savedLastModified;
+    private String[] savedLines;
+
+    public ChangeMarksTask()
+    {
+        setIdle(1000);
+        setPriority(PRIORITY_LOW);
+        setName("changeMarks");
+        setRunnable(runnable);
+    }
+
+    private final Runnable runnable = new Runnable() {
+        public void run()
+        {
+            final Editor editor = Editor.currentEditor();
+            if (editor == null)
+                return;
+            final Buffer buffer = editor.getBuffer();
+            if (buffer == null || buffer.isNewFile() || !buffer.isModified())
+                return;
+            if (!buffer.getBooleanProperty(Property.SHOW_CHANGE_MARKS))
+                return;
+            final File file = buffer.getFile();
+            if (file == null || file.isRemote() || !file.isFile())
+                return;
+            // Reading the file and every line of the buffer would put all
+            // of a large file on the heap.
+            if (buffer instanceof LargeFileBuffer ||
+                LargeFileBuffer.isLargeFileSize(file.length()))
+                return;
+            final int modCount = buffer.getModCount();
+            if (lastBuffer != null && lastBuffer.get() == buffer &&
+                lastModCount == modCount)
+                return;
+            final String[] lines0 = getSavedLines(file, buffer.getSaveEncoding());
+            if (lines0 == null)
+                return;
+            final Line[] lines;
+            final String[] lines1;
+            try {
+                buffer.lockRead();
+            }
+            catch (InterruptedException e) {
+                Log.error(e);
+                return;
+            }
+            try {
+                ArrayList list = new ArrayList();
+                for (Line line = buffer.getFirstLine(); line != null; line = line.next())
+                    list.add(line);
+                lines = (Line[]) list.toArray(new Line[list.size()]);
+                lines1 = new String[lines.length];
+                for (int i = 0; i < lines.length; i++)
+                    lines1[i] = lines[i].getText();
+            }
+            finally {
+                buffer.unlockRead();
+            }
+            final List changes = Diff.diff(lines0, lines1);
+            // For each line of the buffer that the diff pairs with a line of
+            // the file, the number of that line in the file.
+            final int[] fileLineNumbers = new int[lines.length];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < changes.size(); k++) {
+                Diff.Change change = (Diff.Change) changes.get(k);
+                while (i < change.begin1)
+                    fileLineNumbers[i++] = j++;
+                while (i < change.end1)
+                    fileLineNumbers[i++] = -1;
+                j = change.end0;
+            }
+            while (i < lines.length)
+                fileLineNumbers[i++] = j++;
+            final boolean[] clear = new boolean[lines.length];
+            // A line whose original text has more than one line in it has
+            // taken over the lines that were deleted next to it, and
+            // revertLines() puts them back. It can only be cleared, along
+            // with the new lines next to it, if those lines have been typed
+            // in again just as they were.
+            boolean deletedLines = false;
+            for (i = 0; i < lines.length; i++) {
+                final Line line = lines[i];
+                if (!line.isModified() || line.isSaved())
+                    continue;
+                final String originalText = line.getOriginalText();
+                if (originalText != null && originalText.indexOf('\n') >= 0) {
+                    if (!restored(i, originalText, lines, lines0,
+                                  fileLineNumbers, clear))
+                        deletedLines = true;
+                }
+            }
+            final ArrayList unchanged = new ArrayList();
+            for (i = 0; i < lines.length; i++) {
+                final Line line = lines[i];
+                if (clear[i]) {
+                    unchanged.add(line);
+                    continue;
+                }
+                if (fileLineNumbers[i] < 0)
+                    continue;
+                // Lines marked as saved are compared with the text as it
+                // was loaded, not the file.
+                if (!line.isModified() || line.isSaved())
+                    continue;
+                final String originalText = line.getOriginalText();
+                if (originalText == null) {
+                    // A new line that matches a line of the file. Unless
+                    // the line it matches is waiting to be put back by
+                    // revertLines(), it's not new any more.
+                    if (!deletedLines)
+                        unchanged.add(line);
+                    continue;
+                }
+                if (originalText.indexOf('\n') >= 0)
+                    continue;
+                // A line can match some other line of the file: [a, b]
+                // edited to [b, c] pairs the first line with the file's
+                // second one. Its flags are only cleared if it matches its
+                // own line, or else reverting it would lose its original
+                // text.
+                if (fileLineNumbers[i] == line.originalLineNumber() ||
+                    lines1[i].equals(originalText))
+                    unchanged.add(line);
+            }
+            lastBuffer = new WeakReference(buffer);
+            lastModCount = modCount;
+            if (unchanged.isEmpty())
+                return;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    if (buffer.getModCount() != modCount)
+                        return; // Edited since we looked.
+                    try {
+                        buffer.lockWrite();
+                    }
+                    catch (InterruptedException e) {
+                        Log.error(e);
+                        return;
+                    }
+                    try {
+                        for (int i = unchanged.size(); i-- > 0;)
+                            ((Line) unchanged.get(i)).unmodified();
+                    }
+                    finally {
+                        buffer.unlockWrite();
+                    }
+                    buffer.repaint();
+                }
+            });
+        }
+    };
+
+    // Returns true (and sets the elements of clear for the lines in
+    // question) if the lines that originalText says were there, ending or
+    // starting with lines[index], are there again: the new lines around
+    // lines[index] are paired by the diff with the lines of the file that
+    // originalText holds.
+    private static boolean restored(int index, String originalText,
+        Line[] lines, String[] lines0, int[] fileLineNumbers, boolean[] clear)
+    {
+        final String[] parts = originalText.split("\n", -1);
+        final int count = parts.length;
+        // Editor.deleteLineSeparator() may leave the text on the line after
+        // the deleted ones, Region.delete() on the line before.
+        for (int pass = 0; pass < 2; pass++) {
+            final int start = pass == 0 ? index : index - count + 1;
+            if (start < 0 || start + count > lines.length)
+                continue;
+            final int first = fileLineNumbers[start];
+            if (first < 0)
+                continue;
+            final Line line = lines[index];
+            if (!line.isNew()) {
+                final int n = line.originalLineNumber();
+                if (n < first || n >= first + count)
+                    continue;
+            }
+            boolean match = true;
+            for (int k = 0; k < count && match; k++) {
+                final int i = start + k;
+                if (fileLineNumbers[i] != first + k ||
+                    !lines0[first + k].equals(parts[k]))
+                    match = false;
+                else if (i != index &&
+                         (!lines[i].isNew() || lines[i].isSaved() ||
+                          lines[i].getOriginalText() != null))
+                    match = false;
+            }
+            if (match) {
+                for (int k = 0; k < count; k++)
+                    clear[start + k] = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String[] getSavedLines(File file, String encoding)
+    {
+        final long lastModified = file.lastModified();
+        if (savedLines == null || !file.equals(savedFile) ||
+            lastModified != savedLastModified) {
+            savedLines = null;
+            try {
+                savedLines = Diff.getLines(file, encoding);
+                savedFile = file;
+                savedLastModified = lastModified;
+            }
+            catch (IOException e) {
+                Log.error(e);
+            }
+        }
+        return savedLines;
+    }
+}
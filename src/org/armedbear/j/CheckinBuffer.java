@@ -155,7 +155,7 @@ public final class CheckinBuffer extends Buffer implements Constants
     public Expansion getExpansion(Position dot)
     {
         Expansion e =
-            new Expansion(dot, Editor.getModeList().getMode(PLAIN_TEXT_MODE));
+            new Expansion(this, dot, Editor.getModeList().getMode(PLAIN_TEXT_MODE));
         if (parentBuffer != null && e.getPrefix() != null) {
             // Look for diff output buffer for same parent buffer.
             for (BufferIterator it = new BufferIterator(); it.hasNext();) {
@@ -29,7 +29,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import javax.swing.Icon;
-import javax.swing.SwingUtilities;
 import javax.swing.undo.CompoundEdit;
 
 public class CommandInterpreter extends Buffer
@@ -199,7 +198,7 @@ public class CommandInterpreter extends Buffer
             dotLine.setFlags(STATE_INPUT);
         editor.eol();
         editor.insertLineSeparator();
-        if (needsRenumbering)
+        if (needsRenumbering())
             renumber();
         editor.getDotLine().setFlags(0);
         editor.moveCaretToDotCol();
@@ -436,17 +435,19 @@ public class CommandInterpreter extends Buffer
         return s;
     }
 
+    // Output from stdout and stderr, in the order it arrives.
+    private final OutputBatcher outputBatcher = new OutputBatcher() {
+        protected void flush(String s)
+        {
+            appendString(s);
+            updateDisplayInAllFrames();
+            resetUndo();
+        }
+    };
+
     protected void stdOutUpdate(final String s)
     {
-        Runnable r = new Runnable() {
-            public void run()
-            {
-                appendString(s);
-                updateDisplayInAllFrames();
-                resetUndo();
-            }
-        };
-        SwingUtilities.invokeLater(r);
+        outputBatcher.append(s);
     }
 
     protected String stdErrFilter(String s)
@@ -456,15 +457,7 @@ public class CommandInterpreter extends Buffer
 
     protected void stdErrUpdate(final String s)
     {
-        Runnable r = new Runnable() {
-            public void run()
-            {
-                appendString(s);
-                updateDisplayInAllFrames();
-                resetUndo();
-            }
-        };
-        SwingUtilities.invokeLater(r);
+        outputBatcher.append(s);
     }
 
     private String removeEcho(String s) {
@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import javax.swing.SwingUtilities;
 
 public final class CompilationBuffer extends CompilationErrorBuffer
     implements Runnable
@@ -121,7 +120,7 @@ public final class CompilationBuffer extends CompilationErrorBuffer
             try {
                 org.armedbear.lisp.LispObject result =
                     JLisp.runLispCommand(sb.toString());
-                appendLater(result.getStringValue());
+                outputBatcher.append(result.getStringValue());
             }
             catch (Throwable t) {
                 Log.debug(t);
@@ -154,13 +153,13 @@ public final class CompilationBuffer extends CompilationErrorBuffer
                     } else
                         sb.append("exited abnormally");
                     sb.append("\n");
-                    appendLater(sb.toString());
+                    outputBatcher.append(sb.toString());
                 }
                 catch (InterruptedException e) {
                     Log.error(e);
                 }
             } else
-                appendLater("Unable to start compilation process\n");
+                outputBatcher.append("Unable to start compilation process\n");
         }
         Editor.getTagFileManager().setEnabled(true);
     }
@@ -309,29 +308,25 @@ public final class CompilationBuffer extends CompilationErrorBuffer
         killProcess();
     }
 
-    private void appendLater(final String s)
-    {
-        Runnable runnable = new Runnable() {
-            public void run()
-            {
-                Position pos = posEndOfBuffer;
-                insertString(pos, s);
-                if (needsRenumbering())
-                    renumber();
-                for (EditorIterator it = new EditorIterator(); it.hasNext();) {
-                    Editor ed = it.nextEditor();
-                    if (ed.getBuffer() == CompilationBuffer.this) {
-                        ed.eob();
-                        ed.getDisplay().setReframe(-2);
-                        ed.setUpdateFlag(REPAINT);
-                        ed.updateDisplay();
-                    }
+    private final OutputBatcher outputBatcher = new OutputBatcher() {
+        protected void flush(String s)
+        {
+            Position pos = posEndOfBuffer;
+            insertString(pos, s);
+            if (needsRenumbering())
+                renumber();
+            for (EditorIterator it = new EditorIterator(); it.hasNext();) {
+                Editor ed = it.nextEditor();
+                if (ed.getBuffer() == CompilationBuffer.this) {
+                    ed.eob();
+                    ed.getDisplay().setReframe(-2);
+                    ed.setUpdateFlag(REPAINT);
+                    ed.updateDisplay();
                 }
-                resetUndo();
             }
-        };
-        SwingUtilities.invokeLater(runnable);
-    }
+            resetUndo();
+        }
+    };
 
     public String getFileNameForDisplay()
     {
@@ -363,7 +358,7 @@ public final class CompilationBuffer extends CompilationErrorBuffer
 
         public void update(final String s)
         {
-            appendLater(s);
+            outputBatcher.append(s);
         }
     }
 }
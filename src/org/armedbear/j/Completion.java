@@ -105,7 +105,7 @@ public final class Completion
                         toBeAdded = parentPrefix + toBeAdded.substring(parentDirName.length());
                 }
                 toBeAdded = escapeSpaces(toBeAdded);
-                if (file.isDirectory())
+                if (c.isDirectory(file))
                     toBeAdded += separatorChar;
                 list.add(toBeAdded);
             }
@@ -0,0 +1,588 @@
+/*
+ * Diff.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+// Compares two sequences of lines without running an external diff.
+//
+// The comparison itself is Myers' O(ND) algorithm in its linear space form:
+// search forward from the start and backward from the end at the same time
+// until the two searches meet in a "middle snake", then do the same on each
+// side of it. Before that, every line is replaced by a number, so lines are
+// compared with ==, and the lines the two sequences have in common at the
+// beginning and the end are taken off. Then the remaining lines are counted
+// (a histogram of sorts), and lines that don't occur at all in the other
+// sequence are set aside, since they can only be deletions or insertions.
+// Without that, a block of new text makes D, and the running time, large
+// for no benefit.
+//
+// Lines that occur exactly once in each sequence are nearly always the same
+// line, so the longest run of them that is in the same order in both is
+// taken as fixed, and Myers only has to work on the gaps between them. This
+// gives up a shortest edit script in a few unlikely cases, but it keeps the
+// gaps small when two long files differ in many places. If a search still
+// goes on too long, it settles for a good split instead of the best one, as
+// GNU diff does.
+public final class Diff
+{
+    // A run of differences: lines begin0 up to (but not including) end0 of
+    // the first sequence are replaced by lines begin1 up to end1 of the
+    // second. Line numbers are zero-based. Either range may be empty.
+    public static final class Change
+    {
+        public final int begin0;
+        public final int end0;
+        public final int begin1;
+        public final int end1;
+
+        Change(int begin0, int end0, int begin1, int end1)
+        {
+            this.begin0 = begin0;
+            this.end0 = end0;
+            this.begin1 = begin1;
+            this.end1 = end1;
+        }
+    }
+
+    // The lines being compared, after the common prefix and suffix and the
+    // lines that can't match have been taken out, and the index of each one
+    // in the original sequence.
+    private int[] a;
+    private int[] b;
+    private int[] aIndex;
+    private int[] bIndex;
+
+    private boolean[] changed0;
+    private boolean[] changed1;
+
+    // Furthest reaching x on each diagonal, forward and backward. Diagonal k
+    // (x - y) is stored at k + diagonalOffset.
+    private int[] fd;
+    private int[] bd;
+    private int diagonalOffset;
+
+    private int tooExpensive;
+
+    private Diff()
+    {
+    }
+
+    // Returns a list of Change objects, in order.
+    public static List diff(String[] lines0, String[] lines1)
+    {
+        Diff d = new Diff();
+        d.compare(lines0, lines1);
+        return d.getChanges();
+    }
+
+    private void compare(String[] lines0, String[] lines1)
+    {
+        final int n0 = lines0.length;
+        final int n1 = lines1.length;
+        changed0 = new boolean[n0];
+        changed1 = new boolean[n1];
+
+        int prefix = 0;
+        while (prefix < n0 && prefix < n1 &&
+               lines0[prefix].equals(lines1[prefix]))
+            ++prefix;
+        int suffix = 0;
+        while (suffix < n0 - prefix && suffix < n1 - prefix &&
+               lines0[n0 - 1 - suffix].equals(lines1[n1 - 1 - suffix]))
+            ++suffix;
+
+        // Number the lines in between.
+        HashMap ids = new HashMap(2 * (n0 + n1 - 2 * (prefix + suffix)) + 1);
+        int[] x = new int[n0];
+        int[] y = new int[n1];
+        for (int i = prefix; i < n0 - suffix; i++)
+            x[i] = getId(ids, lines0[i]);
+        for (int i = prefix; i < n1 - suffix; i++)
+            y[i] = getId(ids, lines1[i]);
+
+        // How often does each line occur in the other sequence?
+        final int[] count0 = new int[ids.size()];
+        final int[] count1 = new int[ids.size()];
+        for (int i = prefix; i < n0 - suffix; i++)
+            ++count0[x[i]];
+        for (int i = prefix; i < n1 - suffix; i++)
+            ++count1[y[i]];
+
+        a = new int[n0 - prefix - suffix];
+        aIndex = new int[a.length];
+        int length = 0;
+        for (int i = prefix; i < n0 - suffix; i++) {
+            if (count1[x[i]] == 0) {
+                changed0[i] = true;
+            } else {
+                a[length] = x[i];
+                aIndex[length++] = i;
+            }
+        }
+        final int m = length;
+        b = new int[n1 - prefix - suffix];
+        bIndex = new int[b.length];
+        length = 0;
+        for (int i = prefix; i < n1 - suffix; i++) {
+            if (count0[y[i]] == 0) {
+                changed1[i] = true;
+            } else {
+                b[length] = y[i];
+                bIndex[length++] = i;
+            }
+        }
+        final int n = length;
+
+        final int diagonals = m + n + 3;
+        fd = new int[diagonals];
+        bd = new int[diagonals];
+        diagonalOffset = n + 1;
+        tooExpensive = 1;
+        for (int i = diagonals; i != 0; i >>= 2)
+            tooExpensive <<= 1;
+        if (tooExpensive < 256)
+            tooExpensive = 256;
+
+        // Match up the lines that occur once in each sequence.
+        final int[] position = new int[ids.size()];
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (count0[b[i]] == 1 && count1[b[i]] == 1) {
+                position[b[i]] = i;
+                ++unique;
+            }
+        }
+        final int[] anchors0 = new int[unique];
+        final int[] anchors1 = new int[unique];
+        unique = 0;
+        for (int i = 0; i < m; i++) {
+            if (count0[a[i]] == 1 && count1[a[i]] == 1) {
+                anchors0[unique] = i;
+                anchors1[unique++] = position[a[i]];
+            }
+        }
+        final int[] anchors = longestIncreasing(anchors1, unique);
+
+        int x0 = 0;
+        int y0 = 0;
+        for (int i = 0; i < anchors.length; i++) {
+            final int k = anchors[i];
+            compareSequences(x0, anchors0[k], y0, anchors1[k]);
+            x0 = anchors0[k] + 1;
+            y0 = anchors1[k] + 1;
+        }
+        compareSequences(x0, m, y0, n);
+        a = b = aIndex = bIndex = fd = bd = null;
+    }
+
+    // Returns the indexes of a longest strictly increasing subsequence of
+    // the first count values, in order.
+    private static int[] longestIncreasing(int[] values, int count)
+    {
+        // tails[j] is the index of the smallest value that ends an
+        // increasing subsequence of length j + 1.
+        final int[] tails = new int[count];
+        final int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i])
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length)
+                ++length;
+        }
+        final int[] result = new int[length];
+        for (int i = length > 0 ? tails[length - 1] : -1, j = length; j-- > 0;) {
+            result[j] = i;
+            i = previous[i];
+        }
+        return result;
+    }
+
+    private static int getId(HashMap ids, String s)
+    {
+        Integer id = (Integer) ids.get(s);
+        if (id == null) {
+            id = new Integer(ids.size());
+            ids.put(s, id);
+        }
+        return id.intValue();
+    }
+
+    private void compareSequences(int xoff, int xlim, int yoff, int ylim)
+    {
+        // Slide down the diagonal at each end.
+        while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+            ++xoff;
+            ++yoff;
+        }
+        while (xoff < xlim && yoff < ylim && a[xlim - 1] == b[ylim - 1]) {
+            --xlim;
+            --ylim;
+        }
+        if (xoff == xlim) {
+            while (yoff < ylim)
+                changed1[bIndex[yoff++]] = true;
+        } else if (yoff == ylim) {
+            while (xoff < xlim)
+                changed0[aIndex[xoff++]] = true;
+        } else {
+            final long mid = findMiddle(xoff, xlim, yoff, ylim);
+            final int xmid = (int) (mid >>> 32);
+            final int ymid = (int) mid;
+            compareSequences(xoff, xmid, yoff, ymid);
+            compareSequences(xmid, xlim, ymid, ylim);
+        }
+    }
+
+    // Returns the point where the forward and backward searches meet, with
+    // x in the high 32 bits and y in the low 32 bits.
+    private long findMiddle(int xoff, int xlim, int yoff, int ylim)
+    {
+        final int[] fd = this.fd;
+        final int[] bd = this.bd;
+        final int off = diagonalOffset;
+        final int dmin = xoff - ylim;
+        final int dmax = xlim - yoff;
+        final int fmid = xoff - yoff;
+        final int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        final boolean odd = ((fmid - bmid) & 1) != 0;
+        fd[fmid + off] = xoff;
+        bd[bmid + off] = xlim;
+        for (int c = 1; ; c++) {
+            // Extend the forward search by one edit.
+            if (fmin > dmin)
+                fd[--fmin - 1 + off] = -1;
+            else
+                ++fmin;
+            if (fmax < dmax)
+                fd[++fmax + 1 + off] = -1;
+            else
+                --fmax;
+            for (int d = fmax; d >= fmin; d -= 2) {
+                final int tlo = fd[d - 1 + off];
+                final int thi = fd[d + 1 + off];
+                int x = tlo >= thi ? tlo + 1 : thi;
+                int y = x - d;
+                while (x < xlim && y < ylim && a[x] == b[y]) {
+                    ++x;
+                    ++y;
+                }
+                fd[d + off] = x;
+                if (odd && bmin <= d && d <= bmax && bd[d + off] <= x)
+                    return point(x, y);
+            }
+            // And the backward search.
+            if (bmin > dmin)
+                bd[--bmin - 1 + off] = Integer.MAX_VALUE;
+            else
+                ++bmin;
+            if (bmax < dmax)
+                bd[++bmax + 1 + off] = Integer.MAX_VALUE;
+            else
+                --bmax;
+            for (int d = bmax; d >= bmin; d -= 2) {
+                final int tlo = bd[d - 1 + off];
+                final int thi = bd[d + 1 + off];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                    --x;
+                    --y;
+                }
+                bd[d + off] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[d + off])
+                    return point(x, y);
+            }
+            if (c >= tooExpensive) {
+                // Give up looking for the best split. Take whichever of the
+                // two searches has got furthest.
+                int fxybest = -1;
+                int fxbest = 0;
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int x = Math.min(fd[d + off], xlim);
+                    int y = x - d;
+                    if (ylim < y) {
+                        x = ylim + d;
+                        y = ylim;
+                    }
+                    if (fxybest < x + y) {
+                        fxybest = x + y;
+                        fxbest = x;
+                    }
+                }
+                int bxybest = Integer.MAX_VALUE;
+                int bxbest = 0;
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int x = Math.max(xoff, bd[d + off]);
+                    int y = x - d;
+                    if (y < yoff) {
+                        x = yoff + d;
+                        y = yoff;
+                    }
+                    if (x + y < bxybest) {
+                        bxybest = x + y;
+                        bxbest = x;
+                    }
+                }
+                if ((xlim + ylim) - bxybest < fxybest - (xoff + yoff))
+                    return point(fxbest, fxybest - fxbest);
+                else
+                    return point(bxbest, bxybest - bxbest);
+            }
+        }
+    }
+
+    private static long point(int x, int y)
+    {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private List getChanges()
+    {
+        ArrayList changes = new ArrayList();
+        final int n0 = changed0.length;
+        final int n1 = changed1.length;
+        int i0 = 0;
+        int i1 = 0;
+        while (i0 < n0 || i1 < n1) {
+            if ((i0 < n0 && changed0[i0]) || (i1 < n1 && changed1[i1])) {
+                final int begin0 = i0;
+                final int begin1 = i1;
+                while (i0 < n0 && changed0[i0])
+                    ++i0;
+                while (i1 < n1 && changed1[i1])
+                    ++i1;
+                changes.add(new Change(begin0, i0, begin1, i1));
+            } else {
+                ++i0;
+                ++i1;
+            }
+        }
+        return changes;
+    }
+
+    // Compares lines0 and lines1, which are split as by getLines(), and
+    // returns the differences as unified diff output with the given number
+    // of lines of context, or an empty string if there are no changes.
+    // Either file may be null; it only supplies the date for the header.
+    public static String unified(String name0, File file0, String[] lines0,
+        String name1, File file1, String[] lines1, int context)
+    {
+        lines0 = markLastLine(lines0);
+        lines1 = markLastLine(lines1);
+        return unified(name0, file0, lines0, name1, file1, lines1,
+                       diff(lines0, lines1), context);
+    }
+
+    // The lines as diff sees them. The empty string after a final line
+    // separator isn't a line; a last line without a separator is given a
+    // '\n' at the end, which no other line can have, so that it differs
+    // from the same text with a separator and appendLine() knows to say so.
+    private static String[] markLastLine(String[] lines)
+    {
+        final int length = lines.length;
+        if (length == 0)
+            return lines;
+        final String last = lines[length - 1];
+        if (last.length() == 0) {
+            String[] copy = new String[length - 1];
+            System.arraycopy(lines, 0, copy, 0, length - 1);
+            return copy;
+        }
+        String[] copy = new String[length];
+        System.arraycopy(lines, 0, copy, 0, length - 1);
+        copy[length - 1] = last.concat("\n");
+        return copy;
+    }
+
+    private static String unified(String name0, File file0, String[] lines0,
+        String name1, File file1, String[] lines1, List changes, int context)
+    {
+        if (changes.isEmpty())
+            return "";
+        FastStringBuffer sb = new FastStringBuffer();
+        appendHeader(sb, "--- ", name0, file0);
+        appendHeader(sb, "+++ ", name1, file1);
+        int i = 0;
+        while (i < changes.size()) {
+            // Changes that are close enough together share a hunk.
+            int j = i;
+            while (j + 1 < changes.size() &&
+                   ((Change) changes.get(j + 1)).begin0 -
+                   ((Change) changes.get(j)).end0 <= 2 * context)
+                ++j;
+            final Change first = (Change) changes.get(i);
+            final Change last = (Change) changes.get(j);
+            final int begin0 = Math.max(first.begin0 - context, 0);
+            final int begin1 = first.begin1 - (first.begin0 - begin0);
+            final int end0 = Math.min(last.end0 + context, lines0.length);
+            final int end1 = last.end1 + (end0 - last.end0);
+            sb.append("@@ -");
+            appendRange(sb, begin0, end0 - begin0);
+            sb.append(" +");
+            appendRange(sb, begin1, end1 - begin1);
+            sb.append(" @@\n");
+            int line0 = begin0;
+            for (int k = i; k <= j; k++) {
+                final Change change = (Change) changes.get(k);
+                while (line0 < change.begin0)
+                    appendLine(sb, ' ', lines0[line0++]);
+                for (int n = change.begin0; n < change.end0; n++)
+                    appendLine(sb, '-', lines0[n]);
+                for (int n = change.begin1; n < change.end1; n++)
+                    appendLine(sb, '+', lines1[n]);
+                line0 = change.end0;
+            }
+            while (line0 < end0)
+                appendLine(sb, ' ', lines0[line0++]);
+            i = j + 1;
+        }
+        return sb.toString();
+    }
+
+    private static void appendHeader(FastStringBuffer sb, String prefix,
+        String name, File file)
+    {
+        sb.append(prefix);
+        sb.append(name);
+        if (file != null && file.isFile()) {
+            SimpleDateFormat format =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS Z");
+            sb.append('\t');
+            sb.append(format.format(new Date(file.lastModified())));
+        }
+        sb.append('\n');
+    }
+
+    // Ranges are one-based, except that an empty range gives the number of
+    // the line before it.
+    private static void appendRange(FastStringBuffer sb, int begin, int count)
+    {
+        sb.append(count == 0 ? begin : begin + 1);
+        if (count != 1) {
+            sb.append(',');
+            sb.append(count);
+        }
+    }
+
+    private static void appendLine(FastStringBuffer sb, char c, String s)
+    {
+        sb.append(c);
+        final int length = s.length();
+        if (length > 0 && s.charAt(length - 1) == '\n') {
+            sb.append(s.substring(0, length - 1));
+            sb.append("\n\\ No newline at end of file\n");
+        } else {
+            sb.append(s);
+            sb.append('\n');
+        }
+    }
+
+    // The lines of the buffer. If the file ended with a line separator, the
+    // last one is empty.
+    public static String[] getLines(Buffer buffer)
+    {
+        ArrayList list = new ArrayList();
+        for (Line line = buffer.getFirstLine(); line != null; line = line.next())
+            list.add(line.getText());
+        return (String[]) list.toArray(new String[list.size()]);
+    }
+
+    // Splits the file into lines the same way SystemBuffer.load() does, so
+    // the result can be compared with getLines(Buffer): CR, LF and CR LF all
+    // end a line, and if the file ends with a line separator, the last line
+    // is empty.
+    public static String[] getLines(File file, String encoding)
+        throws IOException
+    {
+        return getLines(file, encoding, false);
+    }
+
+    // Like getLines(File, String), but only LF ends a line, and a CR before
+    // it is kept, as diff does. For comparing two files.
+    public static String[] getRawLines(File file, String encoding)
+        throws IOException
+    {
+        return getLines(file, encoding, true);
+    }
+
+    private static String[] getLines(File file, String encoding, boolean raw)
+        throws IOException
+    {
+        ArrayList list = new ArrayList();
+        InputStreamReader reader =
+            new InputStreamReader(file.getInputStream(), encoding);
+        try {
+            FastStringBuffer sb = new FastStringBuffer(256);
+            char[] buf = new char[8192];
+            boolean skipLF = false;
+            int n;
+            while ((n = reader.read(buf, 0, buf.length)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    final char c = buf[i];
+                    if (c == '\n') {
+                        if (skipLF) {
+                            skipLF = false;
+                        } else {
+                            list.add(sb.toString());
+                            sb.setLength(0);
+                        }
+                    } else if (c == '\r' && !raw) {
+                        list.add(sb.toString());
+                        sb.setLength(0);
+                        skipLF = true;
+                    } else {
+                        skipLF = false;
+                        sb.append(c);
+                    }
+                }
+            }
+            list.add(sb.toString());
+        }
+        finally {
+            reader.close();
+        }
+        String s = (String) list.get(0);
+        if (s.length() > 0 && s.charAt(0) == '\ufeff')
+            list.set(0, s.substring(1)); // Byte order mark.
+        return (String[]) list.toArray(new String[list.size()]);
+    }
+}
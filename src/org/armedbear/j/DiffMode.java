@@ -21,6 +21,7 @@ package org.armedbear.j;
 import java.awt.AWTEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
 import java.util.List;
 
 public final class DiffMode extends AbstractMode implements Constants, Mode
@@ -81,14 +82,8 @@ public final class DiffMode extends AbstractMode implements Constants, Mode
               }
             editor.setWaitCursor();
             if (!save || buffer.save())
-              {
-                FastStringBuffer sb = new FastStringBuffer("-u \"");
-                sb.append(patchFile.canonicalPath());
-                sb.append("\" \"");
-                sb.append(file.canonicalPath());
-                sb.append('"');
-                diff(sb.toString());
-              }
+              diffFiles(editor, buffer, patchFile, file,
+                        buffer.getSaveEncoding());
             return;
           }
       }
@@ -143,6 +138,19 @@ public final class DiffMode extends AbstractMode implements Constants, Mode
           }
       }
     editor.setWaitCursor();
+    if (defaultOptions != null && argList.size() == 2)
+      {
+        // Two files and no options: no need to run diff.
+        File file0 = File.getInstance((String) argList.get(0));
+        File file1 = File.getInstance((String) argList.get(1));
+        if (file0 != null && file0.isLocal() && file0.isFile() &&
+            file1 != null && file1.isLocal() && file1.isFile())
+          {
+            diffFiles(editor, parentBuffer, file0, file1,
+                      Editor.preferences().getStringProperty(Property.DEFAULT_ENCODING));
+            return;
+          }
+      }
     FastStringBuffer sb = new FastStringBuffer("diff ");
     if (defaultOptions != null)
       sb.append(defaultOptions);
@@ -175,6 +183,43 @@ public final class DiffMode extends AbstractMode implements Constants, Mode
       }
   }
 
+  // Like diff -u, but done here.
+  private static void diffFiles(Editor editor, Buffer parentBuffer,
+                                File file0, File file1, String encoding)
+  {
+    final String name0 = file0.canonicalPath();
+    final String name1 = file1.canonicalPath();
+    final String output;
+    try
+      {
+        String[] lines0 = Diff.getRawLines(file0, encoding);
+        String[] lines1 = Diff.getRawLines(file1, encoding);
+        output = Diff.unified(name0, file0, lines0, name1, file1, lines1, 3);
+      }
+    catch (IOException e)
+      {
+        Log.error(e);
+        editor.setDefaultCursor();
+        MessageDialog.showMessageDialog(editor, e.getMessage(), "diff");
+        return;
+      }
+    if (output.length() == 0)
+      {
+        editor.setDefaultCursor();
+        MessageDialog.showMessageDialog(editor, "No changes", "diff");
+        return;
+      }
+    DiffOutputBuffer buf = new DiffOutputBuffer(parentBuffer, output, 0);
+    FastStringBuffer sb = new FastStringBuffer("diff -u ");
+    sb.append(name0);
+    sb.append(' ');
+    sb.append(name1);
+    buf.setTitle(sb.toString());
+    editor.makeNext(buf);
+    editor.activateInOtherWindow(buf);
+    editor.setDefaultCursor();
+  }
+
   public static void gotoFile()
   {
     Log.debug("DiffMode.gotoFile");
@@ -34,6 +34,8 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 import javax.swing.Icon;
@@ -54,6 +56,11 @@ public final class Directory extends Buffer
 
     private String limitPattern;
 
+    // Modification time of the directory when it was last listed, and when
+    // the listing was made. Only used with the internal format.
+    private long listedLastModified;
+    private long listedMillis;
+
     private ArrayList entries = new ArrayList();
 
     private int numMarked = 0;
@@ -312,48 +319,76 @@ public final class Directory extends Buffer
 
     public synchronized void reload()
     {
-        ArrayList editors = new ArrayList();
+        List positions = saveEditorPositions();
+        empty();
+        entries.clear();
+        numMarked = 0;
+        setListing(null);
+        load();
+        restoreEditorPositions(positions, false);
+    }
 
-        // Remember the name of the current file in every editor.
-        ArrayList names = new ArrayList();
+    private static final class EditorPosition
+    {
+        final Editor editor;
+        final String name;
+        final int lineNumber;
+        final int topLineNumber;
+        final int shift;
 
-        // Remember the line number in every editor.
-        ArrayList lineNumbers = new ArrayList();
+        // The mark, if any.
+        String markName;
+        int markLineNumber = -1;
+        int markOffset;
 
-        // Remember the top line of the display in every editor.
-        ArrayList topLineNumbers = new ArrayList();
+        EditorPosition(Editor editor, String name, int lineNumber,
+            int topLineNumber, int shift)
+        {
+            this.editor = editor;
+            this.name = name;
+            this.lineNumber = lineNumber;
+            this.topLineNumber = topLineNumber;
+            this.shift = shift;
+        }
+    }
 
+    // Remembers the name of the current file, the line number and the top
+    // line of the display in every editor that is showing this directory,
+    // along with the mark and the horizontal scroll.
+    private List saveEditorPositions()
+    {
+        ArrayList positions = new ArrayList();
         for (EditorIterator it = new EditorIterator(); it.hasNext();) {
             Editor ed = it.nextEditor();
-            String name = null;
-            int lineNumber = 0;
-            int topLineNumber = 0;
             if (ed.getBuffer() == this) {
-                name = getName(ed.getDotLine());
-                lineNumber = ed.getDotLineNumber();
-                topLineNumber = ed.getDisplay().getTopLineNumber();
+                final Display display = ed.getDisplay();
+                EditorPosition pos =
+                    new EditorPosition(ed, getName(ed.getDotLine()),
+                        ed.getDotLineNumber(), display.getTopLineNumber(),
+                        display.getShift());
+                final Position mark = ed.getMark();
+                if (mark != null) {
+                    pos.markName = getName(mark.getLine());
+                    pos.markLineNumber = mark.lineNumber();
+                    pos.markOffset = mark.getOffset();
+                }
+                positions.add(pos);
             }
-            editors.add(ed);
-            names.add(name);
-            lineNumbers.add(new Integer(lineNumber));
-            topLineNumbers.add(new Integer(topLineNumber));
         }
+        return positions;
+    }
 
-        empty();
-        entries.clear();
-        numMarked = 0;
-        setListing(null);
-
-        load();
-
-        // Restore the status quo in every window.
-        for (int i = 0; i < editors.size(); i++) {
-            final Editor ed = (Editor) editors.get(i);
+    // Restores the status quo in every window. The mark and the horizontal
+    // scroll are only kept if keepSelection is true.
+    private void restoreEditorPositions(List positions, boolean keepSelection)
+    {
+        for (int i = 0; i < positions.size(); i++) {
+            final EditorPosition pos = (EditorPosition) positions.get(i);
+            final Editor ed = pos.editor;
             if (ed.getBuffer() == this) {
-                Line dotLine = findName((String)names.get(i));
+                Line dotLine = findName(pos.name);
                 if (dotLine == null) {
-                    dotLine =
-                        getLine(((Integer)lineNumbers.get(i)).intValue());
+                    dotLine = getLine(pos.lineNumber);
                     if (dotLine == null) {
                         if (getFirstLine() == null) {
                             Debug.bug();
@@ -365,13 +400,17 @@ public final class Directory extends Buffer
                     }
                 }
                 ed.setDot(dotLine, getNameOffset(dotLine));
-                ed.setMark(null);
                 final Display display = ed.getDisplay();
-                display.setShift(0);
+                if (keepSelection) {
+                    ed.setMark(findMark(pos));
+                    display.setShift(pos.shift);
+                } else {
+                    ed.setMark(null);
+                    display.setShift(0);
+                }
                 display.moveCaretToDotCol();
 
-                Line line =
-                    getLine(((Integer)topLineNumbers.get(i)).intValue());
+                Line line = getLine(pos.topLineNumber);
                 if (line == null) {
                     Debug.assertTrue(getFirstLine() != null);
                     line = getFirstLine();
@@ -385,6 +424,26 @@ public final class Directory extends Buffer
         }
     }
 
+    // Returns the position in the new listing corresponding to the saved
+    // mark, or null if there was no mark.
+    private Position findMark(EditorPosition pos)
+    {
+        if (pos.markLineNumber < 0)
+            return null;
+        Line line = findName(pos.markName);
+        if (line == null) {
+            line = getLine(pos.markLineNumber);
+            if (line == null) {
+                line = getFirstLine();
+                if (line == null)
+                    return null;
+                while (line.next() != null)
+                    line = line.next();
+            }
+        }
+        return new Position(line, Math.min(pos.markOffset, line.length()));
+    }
+
     private synchronized void reloadFromListing()
     {
         Debug.assertTrue(getListing() != null);
@@ -412,9 +471,16 @@ public final class Directory extends Buffer
     private void addEntry(String name)
     {
         Debug.assertTrue(!usingNativeFormat);
-        File f = File.getInstance(getFile(), name);
+        DirectoryEntry de = makeEntry(getFile(), name);
+        if (de != null)
+            entries.add(de);
+    }
+
+    private static DirectoryEntry makeEntry(File dir, String name)
+    {
+        File f = File.getInstance(dir, name);
         if (f == null)
-            return;
+            return null;
         DirectoryEntry de;
         if (f.isDirectory())
             de = new DirectoryEntry(name, f.lastModified(), 0, true);
@@ -425,7 +491,7 @@ public final class Directory extends Buffer
                 String cp = f.getCanonicalPath();
                 String ap = f.getAbsolutePath();
                 if (!cp.equals(ap)) {
-                    final String canonicalPath = getFile().canonicalPath();
+                    final String canonicalPath = dir.canonicalPath();
                     if (cp.startsWith(canonicalPath + LocalFile.getSeparator()))
                         de.setLinkedTo(cp.substring(canonicalPath.length()+1));
                     else
@@ -436,7 +502,7 @@ public final class Directory extends Buffer
                 Log.error(e);
             }
         }
-        entries.add(de);
+        return de;
     }
 
     private final void appendLine(DirectoryEntry entry)
@@ -707,6 +773,10 @@ public final class Directory extends Buffer
                     addEntry(".");
                     addEntry("..");
                 }
+                // Get the modification time first, so a change made while
+                // we're listing the directory isn't missed.
+                listedLastModified = file.lastModified();
+                listedMillis = System.currentTimeMillis();
                 String[] names = file.list();
                 if (names != null) {
                     if (dff == null) {
@@ -735,44 +805,164 @@ public final class Directory extends Buffer
             }
             try {
                 addEntriesToBuffer();
-                long totalSize = getTotalSize();
-                if (totalSize > 0) {
-                    int end;
-                    if (usingNativeFormat) {
-                        end = getFileSizeEndOffset();
-                        if (end <= 0)
-                            end = 45;
-                    } else {
-                        int nameOffset = getNameOffset();
-                        end = nameOffset - 19;
-                        if (end <= 0)
-                            end = 13;
-                    }
-                    String s = String.valueOf(totalSize);
-                    int begin = end - s.length();
-                    if (begin < 0)
-                        begin = 0;
-                    FastStringBuffer sb =  new FastStringBuffer(80);
-                    sb.append(Utilities.spaces(begin));
-                    for (int i = s.length(); i > 0; i--)
-                        sb.append('-');
-                    appendLine(sb.toString());
-                    sb.setLength(0);
-                    sb.append(Utilities.spaces(begin));
-                    sb.append(s);
-                    appendLine(sb.toString());
-                }
+                appendTotalSize();
                 renumber();
             }
             finally {
                 unlockWrite();
             }
+            if (!usingNativeFormat)
+                DirectoryWatcher.watch();
         }
         catch (Exception e) {
             Log.error(e);
         }
     }
 
+    // Called only from synchronized methods.
+    private void appendTotalSize()
+    {
+        long totalSize = getTotalSize();
+        if (totalSize > 0) {
+            int end;
+            if (usingNativeFormat) {
+                end = getFileSizeEndOffset();
+                if (end <= 0)
+                    end = 45;
+            } else {
+                int nameOffset = getNameOffset();
+                end = nameOffset - 19;
+                if (end <= 0)
+                    end = 13;
+            }
+            String s = String.valueOf(totalSize);
+            int begin = end - s.length();
+            if (begin < 0)
+                begin = 0;
+            FastStringBuffer sb =  new FastStringBuffer(80);
+            sb.append(Utilities.spaces(begin));
+            for (int i = s.length(); i > 0; i--)
+                sb.append('-');
+            appendLine(sb.toString());
+            sb.setLength(0);
+            sb.append(Utilities.spaces(begin));
+            sb.append(s);
+            appendLine(sb.toString());
+        }
+    }
+
+    // Called by DirectoryWatcher on its own thread. If the directory has
+    // been modified since it was listed, lists it again and compares the
+    // names with the entries we have. Only the names that have appeared are
+    // looked at further; the buffer is brought up to date on the event
+    // dispatch thread.
+    void checkForChanges()
+    {
+        final File dir;
+        final String pattern;
+        final HashSet known = new HashSet();
+        final long lastModified;
+        synchronized (this) {
+            dir = getFile();
+            if (usingNativeFormat || !isLoaded() || dir == null || dir.isRemote())
+                return;
+            lastModified = dir.lastModified();
+            // File systems that keep modification times to the second can
+            // hide a change made in the same second as the listing.
+            if (lastModified == listedLastModified &&
+                listedMillis - lastModified > 2000)
+                return;
+            listedLastModified = lastModified;
+            listedMillis = System.currentTimeMillis();
+            pattern = limitPattern;
+            for (int i = entries.size(); i-- > 0;)
+                known.add(((DirectoryEntry) entries.get(i)).getName());
+        }
+        known.remove(".");
+        known.remove("..");
+        final String[] names = dir.list();
+        if (names == null)
+            return;
+        final DirectoryFilenameFilter dff =
+            pattern != null ? new DirectoryFilenameFilter(pattern) : null;
+        final ArrayList added = new ArrayList();
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            if (known.remove(name))
+                continue; // Still there.
+            if (dff != null && !dff.accepts(name)) {
+                // Directories are listed whatever the limit is.
+                File f = File.getInstance(dir, name);
+                if (f == null || !f.isDirectory())
+                    continue;
+            }
+            DirectoryEntry de = makeEntry(dir, name);
+            if (de != null)
+                added.add(de);
+        }
+        // Whatever is left has gone away.
+        final HashSet removed = known;
+        if (added.isEmpty() && removed.isEmpty())
+            return;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run()
+            {
+                if (applyChanges(dir, added, removed)) {
+                    for (EditorIterator it = new EditorIterator(); it.hasNext();) {
+                        Editor ed = it.nextEditor();
+                        if (ed.getBuffer() == Directory.this)
+                            ed.updateDisplay();
+                    }
+                }
+            }
+        });
+    }
+
+    // Returns true if the listing was updated.
+    private synchronized boolean applyChanges(File dir, List added,
+        HashSet removed)
+    {
+        if (getFile() != dir || usingNativeFormat || !isLoaded())
+            return false; // Moved on since the check.
+        final HashSet present = new HashSet();
+        for (Iterator it = entries.iterator(); it.hasNext();) {
+            DirectoryEntry entry = (DirectoryEntry) it.next();
+            if (removed.contains(entry.getName())) {
+                if (entry.isMarked())
+                    --numMarked;
+                it.remove();
+            } else
+                present.add(entry.getName());
+        }
+        for (int i = 0; i < added.size(); i++) {
+            DirectoryEntry entry = (DirectoryEntry) added.get(i);
+            if (!present.contains(entry.getName()))
+                entries.add(entry);
+        }
+        sort();
+        List positions = saveEditorPositions();
+        try {
+            lockWrite();
+        }
+        catch (InterruptedException e) {
+            Log.error(e);
+            return false;
+        }
+        try {
+            empty();
+            addEntriesToBuffer();
+            appendTotalSize();
+            renumber();
+        }
+        finally {
+            unlockWrite();
+        }
+        restoreEditorPositions(positions, true);
+        Log.debug("Directory.applyChanges " + added.size() + " added, " +
+            removed.size() + " removed");
+        return true;
+    }
+
     private long getTotalSize()
     {
         long totalSize = 0;
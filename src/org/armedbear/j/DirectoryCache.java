@@ -43,6 +43,18 @@ public final class DirectoryCache
         return cache;
     }
 
+    // Called when memory is short.
+    public static synchronized void releaseCache()
+    {
+        if (cache != null)
+            cache.clear();
+    }
+
+    private synchronized void clear()
+    {
+        entries.clear();
+    }
+
     public synchronized String getListing(File file)
     {
         String netPath = file.netPath();
@@ -0,0 +1,80 @@
+/*
+ * DirectoryWatcher.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.util.ArrayList;
+
+// Keeps directory buffers that use the internal format up to date with the
+// file system. Every couple of seconds, while the user is idle, each such
+// buffer compares the modification time of its directory with the one it
+// was listed with, and picks up the names that have come and gone if they
+// differ. Buffers that use ls are left alone; they're refreshed by reload().
+public final class DirectoryWatcher extends IdleThreadTask
+{
+    private static final long INTERVAL = 2000;
+
+    private static DirectoryWatcher instance;
+
+    private long lastRun;
+
+    private DirectoryWatcher()
+    {
+        setIdle(1000);
+        setPriority(PRIORITY_LOW);
+        setName("directoryWatcher");
+        setRunnable(runnable);
+    }
+
+    // Called when a directory buffer is loaded.
+    public static synchronized void watch()
+    {
+        if (instance == null) {
+            IdleThread idleThread = IdleThread.getInstance();
+            if (idleThread == null)
+                return;
+            instance = new DirectoryWatcher();
+            idleThread.maybeAddTask(instance);
+        }
+    }
+
+    private final Runnable runnable = new Runnable() {
+        public void run()
+        {
+            final long now = System.currentTimeMillis();
+            if (now - lastRun < INTERVAL)
+                return;
+            lastRun = now;
+            ArrayList directories = new ArrayList();
+            synchronized (Editor.getBufferList()) {
+                for (BufferIterator it = new BufferIterator(); it.hasNext();) {
+                    Buffer buf = it.nextBuffer();
+                    if (buf instanceof Directory)
+                        directories.add(buf);
+                }
+            }
+            for (int i = 0; i < directories.size(); i++) {
+                if (isCancelled())
+                    return;
+                ((Directory) directories.get(i)).checkForChanges();
+            }
+        }
+    };
+}
@@ -36,6 +36,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphVector;
 import java.util.HashMap;
 import javax.swing.JComponent;
@@ -47,6 +48,9 @@ public final class Display extends JComponent implements Constants,
 {
     private static final int MAX_LINE_NUMBER_CHARS = 6;
 
+    // The line cache is cleared when it gets this big.
+    private static final int MAX_CACHED_LINES = 1000;
+
     private static final Preferences preferences = Editor.preferences();
 
     private static Font plainFont;
@@ -72,6 +76,10 @@ public final class Display extends JComponent implements Constants,
 
     private final HashMap changedLines = new HashMap();
 
+    // Formatted text and glyph runs of the lines painted recently, so lines
+    // that haven't changed don't have to be formatted and laid out again.
+    private final HashMap lineCache = new HashMap();
+
     private final Editor editor;
 
     private Line topLine;
@@ -191,11 +199,19 @@ public final class Display extends JComponent implements Constants,
             preferences.getIntegerProperty(Property.CHANGE_MARK_WIDTH);
     }
 
+    public synchronized void releaseLineCache()
+    {
+        lineCache.clear();
+    }
+
     public synchronized void initialize()
     {
         // Explicitly set this to null here. We might be resetting the display.
         paintLineImage = null;
 
+        // The fonts may have changed too.
+        lineCache.clear();
+
         // Allocate text and format arrays big enough to handle full screen
         // width for narrowest character in font, plus some slack (runs of
         // italics tend to get compressed). An extra 25% should be plenty.
@@ -392,10 +408,7 @@ public final class Display extends JComponent implements Constants,
     // Does NOT assume line is after topLine.
     private int getAbsoluteY(Line line)
     {
-        int y = 0;
-        for (Line l = editor.getBuffer().getFirstLine(); l != null && l != line; l = l.nextVisible())
-            y += l.getHeight();
-        return y;
+        return editor.getBuffer().getY(line);
     }
 
     private void initializePaint()
@@ -511,10 +524,9 @@ public final class Display extends JComponent implements Constants,
         if (absCol < shift)
             return;
         final int col = absCol - shift;
-        formatLine(line, shift, col);
         Graphics2D g2d = (Graphics2D) getGraphics();
-        final int x =
-            gutterWidth + measureLine(g2d, textArray, col, formatArray);
+        final int x = gutterWidth +
+            measureLine(g2d, getCachedLine(line, shift, col), col);
         final int y = getY(line);
         g2d.setColor(editor.getFormatter().getCaretColor());
         g2d.fillRect(x, y, 1, charAscent + charDescent);
@@ -558,8 +570,8 @@ public final class Display extends JComponent implements Constants,
         else if (dotLine.length() == 0)
             x = gutterWidth + caretCol * spaceWidth;
         else {
-            formatLine(dotLine, shift, caretCol);
-            x = gutterWidth + measureLine(g2d, textArray, caretCol, formatArray);
+            x = gutterWidth +
+                measureLine(g2d, getCachedLine(dotLine, shift, caretCol), caretCol);
         }
 
         if (x > getWidth())
@@ -656,6 +668,65 @@ public final class Display extends JComponent implements Constants,
     }
 
     private int formatLine(final Line line, final int begin, final int maxCols)
+    {
+        final CachedLine cached = getCachedLine(line, begin, maxCols);
+        final int length = Math.min(cached.length, maxCols);
+        // Avoid getfield overhead.
+        final int[] fa = formatArray;
+        final char[] ta = textArray;
+        System.arraycopy(cached.chars, 0, ta, 0, length);
+        System.arraycopy(cached.formats, 0, fa, 0, length);
+        for (int i = ta.length; i-- > length;) {
+            ta[i] = ' ';
+            fa[i] = 0;
+        }
+        return length;
+    }
+
+    // Returns the cache entry for line, formatting the line first if the
+    // entry is missing or out of date. The entry covers at least maxCols
+    // columns starting at begin. Entries are validated against the line's
+    // own text and flags, so an edit elsewhere in the buffer leaves them
+    // alone; lineChanged() evicts the entry of a line that is modified.
+    private CachedLine getCachedLine(final Line line, final int begin,
+        final int maxCols)
+    {
+        final Formatter formatter = editor.getFormatter();
+        final String text = line.getText();
+        CachedLine cached = (CachedLine) lineCache.get(line);
+        if (cached != null) {
+            if (cached.formatter == formatter &&
+                cached.shift == begin &&
+                cached.maxCols >= maxCols &&
+                cached.flags == line.flags() &&
+                (text == null ? cached.text == null : text.equals(cached.text)))
+                return cached;
+        } else {
+            if (lineCache.size() >= MAX_CACHED_LINES)
+                lineCache.clear();
+            cached = new CachedLine();
+            lineCache.put(line, cached);
+        }
+        // Format enough columns for a full repaint, even if the caller only
+        // needs a few of them.
+        final int cols = Math.max(maxCols, getMaxCols());
+        final int length = formatLineInternal(line, begin, cols);
+        cached.formatter = formatter;
+        cached.text = text;
+        cached.flags = line.flags();
+        cached.shift = begin;
+        cached.maxCols = cols;
+        cached.chars = new char[length];
+        System.arraycopy(textArray, 0, cached.chars, 0, length);
+        cached.formats = new int[length];
+        System.arraycopy(formatArray, 0, cached.formats, 0, length);
+        cached.length = length;
+        cached.frc = null;
+        return cached;
+    }
+
+    private int formatLineInternal(final Line line, final int begin,
+        final int maxCols)
     {
         // Avoid getfield overhead.
         final int[] fa = formatArray;
@@ -776,7 +847,8 @@ public final class Display extends JComponent implements Constants,
         if (showLineNumbers && editor.getDot() != null)
             drawGutterBorder(paintLineGraphics, 0, line.getHeight());
         drawVerticalRule(paintLineGraphics, 0, line.getHeight());
-        drawText(paintLineGraphics, textArray, totalChars, formatArray, 0);
+        drawText(paintLineGraphics, getCachedLine(line, shift, maxCols),
+            totalChars, 0);
         changedLines.remove(line);
 
         g.drawImage(paintLineImage, 0, y, null);
@@ -889,44 +961,28 @@ public final class Display extends JComponent implements Constants,
         return width;
     }
 
-    private void drawText(Graphics2D g2d, char[] textArray, int length,
-        int[] formatArray, int y)
+    private void drawText(Graphics2D g2d, CachedLine cached, int length,
+        int y)
     {
-        int i = 0;
+        final FontRenderContext frc = g2d.getFontRenderContext();
+        if (cached.frc == null || !cached.frc.equals(frc))
+            layoutLine(cached, frc);
         double x = gutterWidth;
         final Formatter formatter = editor.getFormatter();
-        while (i < length) {
-            int format = formatArray[i];
-            int start = i;
-            while (formatArray[i] == format && i < length)
-                ++i;
-            int style;
+        for (int i = 0; i < cached.runCount; i++) {
+            if (cached.runStarts[i] >= length)
+                break;
+            final int format = cached.runFormats[i];
             FormatTableEntry entry = formatter.getFormatTableEntry(format);
-            if (entry != null) {
+            if (entry != null)
                 g2d.setColor(entry.getColor());
-                style = entry.getStyle();
-            } else {
+            else {
                 // Web mode.
                 g2d.setColor(formatter.getColor(format));
-                style = formatter.getStyle(format);
-            }
-            Font font;
-            switch (style) {
-                case Font.BOLD:
-                    font = boldFont;
-                    break;
-                case Font.ITALIC:
-                    font = italicFont;
-                    break;
-                case Font.PLAIN:
-                default:
-                    font = plainFont;
-                    break;
             }
-            char[] chars = new char[i - start];
-            System.arraycopy(textArray, start, chars, 0, i - start);
-            GlyphVector gv = font.createGlyphVector(g2d.getFontRenderContext(), chars);
-            final double width = gv.getLogicalBounds().getWidth();
+            final int style = cached.runStyles[i];
+            final GlyphVector gv = cached.glyphs[i];
+            final double width = cached.widths[i];
             if (style == Font.BOLD) {
                 if (boldFont == plainFont) {
                     if (underlineBold)
@@ -943,6 +999,62 @@ public final class Display extends JComponent implements Constants,
         }
     }
 
+    // Splits the cached text into runs of the same format and creates the
+    // glyphs for each run.
+    private void layoutLine(CachedLine cached, FontRenderContext frc)
+    {
+        final char[] chars = cached.chars;
+        final int[] formats = cached.formats;
+        final int length = cached.length;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || formats[i] != formats[i-1])
+                ++count;
+        }
+        cached.runStarts = new int[count];
+        cached.runFormats = new int[count];
+        cached.runStyles = new int[count];
+        cached.glyphs = new GlyphVector[count];
+        cached.widths = new double[count];
+        final Formatter formatter = editor.getFormatter();
+        int i = 0;
+        for (int run = 0; run < count; run++) {
+            final int format = formats[i];
+            final int start = i;
+            while (i < length && formats[i] == format)
+                ++i;
+            int style;
+            FormatTableEntry entry = formatter.getFormatTableEntry(format);
+            if (entry != null)
+                style = entry.getStyle();
+            else
+                style = formatter.getStyle(format); // Web mode.
+            Font font;
+            switch (style) {
+                case Font.BOLD:
+                    font = boldFont;
+                    break;
+                case Font.ITALIC:
+                    font = italicFont;
+                    break;
+                case Font.PLAIN:
+                default:
+                    font = plainFont;
+                    break;
+            }
+            char[] runChars = new char[i - start];
+            System.arraycopy(chars, start, runChars, 0, i - start);
+            GlyphVector gv = font.createGlyphVector(frc, runChars);
+            cached.runStarts[run] = start;
+            cached.runFormats[run] = format;
+            cached.runStyles[run] = style;
+            cached.glyphs[run] = gv;
+            cached.widths[run] = gv.getLogicalBounds().getWidth();
+        }
+        cached.runCount = count;
+        cached.frc = frc;
+    }
+
     private int measureLine(Graphics2D g2d, char[] textArray, int length, int[] formatArray)
     {
         if (length == 0)
@@ -977,6 +1089,45 @@ public final class Display extends JComponent implements Constants,
         return (int) totalWidth;
     }
 
+    // Like measureLine() above, but uses the glyph runs of the cached line
+    // instead of creating new ones. Called when the caret is drawn.
+    private int measureLine(Graphics2D g2d, CachedLine cached, int length)
+    {
+        if (length == 0)
+            return 0;
+        final FontRenderContext frc = g2d.getFontRenderContext();
+        if (cached.frc == null || !cached.frc.equals(frc))
+            layoutLine(cached, frc);
+        final int limit = Math.min(length, cached.length);
+        double totalWidth = 0;
+        for (int i = 0; i < cached.runCount; i++) {
+            final int start = cached.runStarts[i];
+            if (start >= limit)
+                break;
+            final int end = i + 1 < cached.runCount ?
+                cached.runStarts[i+1] : cached.length;
+            if (end <= limit) {
+                totalWidth += cached.widths[i];
+            } else {
+                // The caret is in the middle of this run.
+                GlyphVector gv = cached.glyphs[i].getFont().createGlyphVector(
+                    frc, new String(cached.chars, start, limit - start));
+                totalWidth += gv.getLogicalBounds().getWidth();
+            }
+        }
+        // Past the end of the text, the caret is measured in spaces, as if
+        // the line were padded out to the caret.
+        final int padding = Math.min(length, textArray.length) - cached.length;
+        if (padding > 0) {
+            char[] spaces = new char[padding];
+            for (int i = padding; i-- > 0;)
+                spaces[i] = ' ';
+            GlyphVector gv = plainFont.createGlyphVector(frc, spaces);
+            totalWidth += gv.getLogicalBounds().getWidth();
+        }
+        return (int) totalWidth;
+    }
+
     public void paintComponent(Graphics g)
     {
         final Buffer buffer = editor.getBuffer();
@@ -1052,7 +1203,8 @@ public final class Display extends JComponent implements Constants,
         final Color colorBackground = editor.getFormatter().getBackgroundColor();
         int y = - pixelsAboveTopLine;
         Line line = topLine;
-        while (line != null && y + line.getHeight() < clipBounds.y) {
+        // Skip the lines above the damaged area.
+        while (line != null && y + line.getHeight() <= clipBounds.y) {
             y += line.getHeight();
             line = line.nextVisible();
         }
@@ -1081,7 +1233,8 @@ public final class Display extends JComponent implements Constants,
                 if (totalChars > 0) {
                     // Draw vertical rule first so it will be behind the text.
                     drawVerticalRule(g2d, y, line.getHeight());
-                    drawText(g2d, textArray, totalChars, formatArray, y);
+                    drawText(g2d, getCachedLine(line, shift, maxCols),
+                        totalChars, y);
                 } else
                     drawVerticalRule(g2d, y, line.getHeight());
                 changedLines.remove(line);
@@ -1909,21 +2062,7 @@ public final class Display extends JComponent implements Constants,
     // y is absolute offset from start of buffer.
     private Line lineFromAbsoluteY(int y)
     {
-        Line line = editor.getBuffer().getFirstLine();
-        if (line != null) {
-            int total = 0;
-            while (true) {
-                total += line.getHeight();
-                if (total > y)
-                    break;
-                Line next = line.nextVisible();
-                if (next != null)
-                    line = line.nextVisible();
-                else
-                    break;
-            }
-        }
-        return line;
+        return editor.getBuffer().getLineAtY(y);
     }
 
     public synchronized int getColumn(Line line, int x)
@@ -1964,6 +2103,7 @@ public final class Display extends JComponent implements Constants,
             return;
         }
         changedLines.put(line, line);
+        lineCache.remove(line);
     }
 
     public static void resetDisplay()
@@ -1991,4 +2131,28 @@ public final class Display extends JComponent implements Constants,
     {
         return editor.getMode().getToolTipText(editor, e);
     }
+
+    // The formatted text of a line, the values it was formatted with, and
+    // (once the line has been drawn) its glyph runs.
+    private static final class CachedLine
+    {
+        Formatter formatter;
+        String text;
+        int flags;
+        int shift;
+        int maxCols;
+
+        char[] chars;
+        int[] formats;
+        int length;
+
+        // Null until the glyph runs have been created.
+        FontRenderContext frc;
+        int runCount;
+        int[] runStarts;
+        int[] runFormats;
+        int[] runStyles;
+        GlyphVector[] glyphs;
+        double[] widths;
+    }
 }
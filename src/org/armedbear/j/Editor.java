@@ -1146,6 +1146,8 @@ public final class Editor extends JPanel implements Constants,
             return;
         }
         try {
+            final int lineNumber =
+                buffer.needsRenumbering() ? -1 : dotLine.lineNumber();
             if (dotLine.length() == 0) {
                 adjustMarkers(dotLine);
                 // Save original text.
@@ -1197,8 +1199,11 @@ public final class Editor extends JPanel implements Constants,
             }
             buffer.repaint();
             setUpdateFlag(REFRAME);
-            buffer.needsRenumbering = true;
-            buffer.modified();
+            buffer.needsRenumberingFrom(dotLine.lineNumber());
+            if (lineNumber >= 0)
+                buffer.modified(lineNumber, lineNumber, true);
+            else
+                buffer.modified();
         }
         finally {
             buffer.unlockWrite();
@@ -1215,7 +1220,7 @@ public final class Editor extends JPanel implements Constants,
         if (dotOffset < dotLine.length() - 1)
             tail = dotLine.substring(dotOffset + 1);
         dotLine.setText(head.concat(tail));
-        buffer.modified();
+        buffer.modified(dotLine);
         updateInAllEditors(dotLine);
     }
 
@@ -2107,7 +2112,7 @@ public final class Editor extends JPanel implements Constants,
         // Replace the existing text.
         addUndo(SimpleEdit.LINE_EDIT);
         dotLine.setText(sb.toString());
-        buffer.modified();
+        buffer.modified(dotLine);
         updateInAllEditors(dotLine);
 
         // Put the caret where we want it.
@@ -2731,7 +2736,7 @@ public final class Editor extends JPanel implements Constants,
 
     private void pageDownInternal()
     {
-        Debug.assertTrue(buffer.needsRenumbering == false);
+        Debug.assertTrue(buffer.needsRenumbering() == false);
         Line dotLine = getDotLine();
         int numRows = display.getRows();
         Line[] lines = new Line[numRows];
@@ -2780,7 +2785,7 @@ public final class Editor extends JPanel implements Constants,
     {
         if (dot.getLine() == buffer.getFirstLine())
             return;
-        Debug.assertTrue(buffer.needsRenumbering == false);
+        Debug.assertTrue(buffer.needsRenumbering() == false);
         int topLineNumber = display.getTopLineNumber();
         int dotLineNumber = dot.lineNumber();
         int linesToScroll = display.getRows() - 1;
@@ -3793,7 +3798,7 @@ public final class Editor extends JPanel implements Constants,
             try {
                 addUndo(SimpleEdit.LINE_EDIT);
                 dotLine.setText(dotLine.getText().concat(s));
-                buffer.modified();
+                buffer.modified(dotLine);
                 dot.setOffset(dotLine.length());
             }
             finally {
@@ -3870,7 +3875,7 @@ public final class Editor extends JPanel implements Constants,
             dotLine.setText(sb.toString());
             dot.moveRight();
             moveCaretToDotCol();
-            buffer.modified();
+            buffer.modified(dotLine);
         }
         finally {
             buffer.unlockWrite();
@@ -4044,7 +4049,7 @@ public final class Editor extends JPanel implements Constants,
                 addUndo(SimpleEdit.LINE_EDIT);
                 getDotLine().setText("#");
                 dot.setOffset(1);
-                buffer.modified();
+                buffer.modified(getDotLine());
             }
             finally {
                 buffer.unlockWrite();
@@ -7880,7 +7885,7 @@ public final class Editor extends JPanel implements Constants,
             for (Line toBeShown = begin; toBeShown != end && toBeShown != null; toBeShown = toBeShown.next())
                 toBeShown.show();
         }
-        buffer.needsRenumbering = true;
+        buffer.needsRenumbering(true);
     }
 
     private static Aliases aliases;
@@ -22,11 +22,17 @@
 package org.armedbear.j;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import javax.swing.undo.CompoundEdit;
 
 public class Expansion implements Constants
 {
+    // Words within this many lines of the starting position are offered
+    // first, nearest first. The rest of the buffer's words come from its
+    // word index, most frequent first.
+    private static final int NEARBY_LINES = 100;
+
     protected String prefix;
     protected int prefixOffset; // Offset of prefix on current line.
 
@@ -39,9 +45,11 @@ public class Expansion implements Constants
     protected String savedText;
 
     private final Mode mode;
+    private Buffer buffer;
 
     private String current;
     private boolean forceLowerCase;
+    private boolean ignoreCase;
 
     // For MailAddressExpansion.
     protected Expansion()
@@ -51,6 +59,12 @@ public class Expansion implements Constants
 
     public Expansion(Position dot, Mode mode)
     {
+        this(Editor.currentEditor().getBuffer(), dot, mode);
+    }
+
+    public Expansion(Buffer buffer, Position dot, Mode mode)
+    {
+        this.buffer = buffer;
         savedDot = new Position(dot);
         this.mode = mode;
         final Line dotLine = dot.getLine();
@@ -85,6 +99,7 @@ public class Expansion implements Constants
 
     public Expansion(Buffer buffer, String prefix, String current, Position pos)
     {
+        this.buffer = buffer;
         mode = buffer.getMode();
         this.prefix = prefix;
         this.current = current;
@@ -99,7 +114,10 @@ public class Expansion implements Constants
     {
         List list = new ArrayList();
         if (prefix != null) {
-            final boolean ignoreCase = Utilities.isLowerCase(prefix);
+            ignoreCase = Utilities.isLowerCase(prefix);
+            final boolean indexed = buffer != null && WordIndex.isIndexable(buffer);
+            final int limit = indexed ? NEARBY_LINES : Integer.MAX_VALUE;
+            final HashSet seen = new HashSet();
             String s = null;
             // Search backwards on current line.
             Line line = pos.getLine();
@@ -110,65 +128,80 @@ public class Expansion implements Constants
                 if (ignoreCase)
                     s = s.toLowerCase();
                 while ((index = s.lastIndexOf(prefix, index)) >= 0) {
-                    maybeAddCandidate(list, new Position(line, index));
+                    maybeAddCandidate(list, seen, new Position(line, index));
                     --index;
                 }
             }
-            // Search backwards to start of buffer.
-            for (line = pos.getLine().previous(); line != null; line = line.previous()) {
+            // Search backwards.
+            int count = 0;
+            for (line = pos.getLine().previous(); line != null && count < limit; line = line.previous()) {
                 index = line.length();
                 s = ignoreCase ? line.getText().toLowerCase() : line.getText();
                 while ((index = s.lastIndexOf(prefix, index)) >= 0) {
-                    maybeAddCandidate(list, new Position(line, index));
+                    maybeAddCandidate(list, seen, new Position(line, index));
                     --index;
                 }
+                ++count;
             }
-            // Search forwards from current line to end of buffer. Search current
-            // line again to pick up possible matches to right of dot.
-            for (line = pos.getLine(); line != null; line = line.next()) {
+            // Search forwards from current line. Search current line again to
+            // pick up possible matches to right of dot.
+            count = 0;
+            for (line = pos.getLine(); line != null && count <= limit; line = line.next()) {
                 index = 0;
                 s = ignoreCase ? line.getText().toLowerCase() : line.getText();
                 while ((index = s.indexOf(prefix, index)) >= 0) {
-                    maybeAddCandidate(list, new Position(line, index));
+                    maybeAddCandidate(list, seen, new Position(line, index));
                     ++index;
                 }
+                ++count;
+            }
+            if (indexed) {
+                List words = buffer.getWordIndex().find(prefix, ignoreCase);
+                for (int i = 0; i < words.size(); i++)
+                    maybeAddCandidate(list, seen, (String) words.get(i));
             }
         }
         return list;
     }
 
-    private void maybeAddCandidate(List list, Position where)
+    private void maybeAddCandidate(List list, HashSet seen, Position where)
     {
         final Line line = where.getLine();
         final int offset = where.getOffset();
         if (offset == 0 || !mode.isIdentifierPart(line.charAt(offset-1))) {
             final String candidate = where.getIdentifier(mode);
-            maybeAddCandidate(list, candidate);
+            maybeAddCandidate(list, seen, candidate);
         }
     }
 
-    private void maybeAddCandidate(List list, String candidate)
+    private void maybeAddCandidate(List list, HashSet seen, String candidate)
     {
         // We don't want what we started with.
         if (candidate.equals(current))
             return;
         if (forceLowerCase)
             candidate = candidate.toLowerCase();
-        for (int i = list.size(); i-- > 0;) {
-            if (candidate.equals(list.get(i))) {
-                // It's already in the list.
-                return;
-            }
+        if (seen.add(candidate)) {
+            // Not already in the list.
+            list.add(candidate);
         }
-        // Not found.
-        list.add(candidate);
     }
 
     public void appendCandidates(List list)
     {
+        final HashSet seen = new HashSet(candidates);
         final int size = list.size();
         for (int i = 0; i < size; i++)
-            maybeAddCandidate(candidates, (String)list.get(i));
+            maybeAddCandidate(candidates, seen, (String)list.get(i));
+    }
+
+    // Adds the words in the other buffers that start with the prefix, most
+    // frequent first.
+    protected void appendCandidatesFromOtherBuffers()
+    {
+        if (prefix != null && candidates != null)
+            appendCandidates(WordIndex.findInOtherBuffers(buffer, prefix,
+                ignoreCase));
     }
 
     public String getNextCandidate()
@@ -242,6 +275,7 @@ public class Expansion implements Constants
             expand(editor, Expansion.getLastExpansion(), true);
         else {
             Expansion e = editor.getBuffer().getExpansion(editor.getDot());
+            e.appendCandidatesFromOtherBuffers();
             Expansion.setLastExpansion(e);
             expand(editor, e, false);
         }
@@ -0,0 +1,272 @@
+/*
+ * FileListingCache.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Listings of local directories, for filename completion.
+//
+// Each listing remembers which of the files completion has asked about are
+// directories, so it doesn't need to ask again, and the modification time of
+// the directory, so we can tell when the listing is out of date with a
+// single call. Listing a directory doesn't look at the files in it; only the
+// names that match are checked, and on a slow file system that makes a
+// difference. Remote directories are listed by File, which has its own
+// cache.
+public final class FileListingCache
+{
+    // Number of directories to remember.
+    private static final int MAX_ENTRIES = 512;
+
+    // A listing isn't checked again for this long after it was last checked.
+    private static final long CHECK_INTERVAL = 2000;
+
+    private static final class Listing
+    {
+        final File[] files;
+        final long lastModified;
+        long checked;
+
+        // Maps names to Boolean.TRUE for directories, Boolean.FALSE for
+        // anything else, for the files we've been asked about.
+        private final HashMap directories = new HashMap();
+
+        Listing(File[] files, long lastModified)
+        {
+            this.files = files;
+            this.lastModified = lastModified;
+            checked = System.currentTimeMillis();
+        }
+
+        synchronized boolean isDirectory(File file)
+        {
+            final String name = file.getName();
+            Boolean b = (Boolean) directories.get(name);
+            if (b == null) {
+                b = file.isDirectory() ? Boolean.TRUE : Boolean.FALSE;
+                directories.put(name, b);
+            }
+            return b.booleanValue();
+        }
+    }
+
+    // Maps canonical paths to listings, least recently used first.
+    private static final LinkedHashMap cache =
+        new LinkedHashMap(64, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    // Maps canonical paths to the threads that are listing them.
+    private static final HashMap pending = new HashMap();
+
+    private FileListingCache()
+    {
+    }
+
+    // Returns the files in dir, or null if dir can't be listed.
+    public static File[] listFiles(File dir)
+    {
+        if (!dir.isLocal())
+            return dir.listFiles();
+        Listing listing = getListing(dir);
+        return listing != null ? listing.files : null;
+    }
+
+    // Lists the given directories on separate threads. Returns an array with
+    // the files in each directory, in the same order, or null for a
+    // directory that can't be listed or hasn't been listed after timeout
+    // milliseconds. A directory that's late is added to the cache when it
+    // does get listed, so it will be there next time; until then, asking for
+    // it again waits for the same thread instead of starting another one.
+    public static File[][] listFiles(List dirs, long timeout)
+    {
+        final int count = dirs.size();
+        final File[][] results = new File[count][];
+        final ListingThread[] threads = new ListingThread[count];
+        for (int i = 0; i < count; i++) {
+            final File dir = (File) dirs.get(i);
+            if (dir == null)
+                continue;
+            File[] files = getCachedFiles(dir);
+            if (files != null)
+                results[i] = files;
+            else
+                threads[i] = startListing(dir);
+        }
+        final long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < count; i++) {
+            final ListingThread thread = threads[i];
+            if (thread == null)
+                continue;
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0) {
+                try {
+                    thread.join(remaining);
+                }
+                catch (InterruptedException e) {
+                    Log.error(e);
+                }
+            }
+            results[i] = thread.getFiles();
+        }
+        return results;
+    }
+
+    // Returns the thread that is listing dir, starting one if there isn't
+    // one already.
+    private static ListingThread startListing(File dir)
+    {
+        final String key = dir.canonicalPath();
+        synchronized (pending) {
+            ListingThread thread =
+                key != null ? (ListingThread) pending.get(key) : null;
+            if (thread == null) {
+                thread = new ListingThread(dir, key);
+                if (key != null)
+                    pending.put(key, thread);
+                thread.start();
+            }
+            return thread;
+        }
+    }
+
+    private static final class ListingThread extends Thread
+    {
+        private final File dir;
+        private final String key;
+        private File[] files;
+
+        ListingThread(File dir, String key)
+        {
+            super("list " + key);
+            this.dir = dir;
+            this.key = key;
+            setDaemon(true);
+        }
+
+        public void run()
+        {
+            File[] result = null;
+            try {
+                result = listFiles(dir);
+            }
+            finally {
+                synchronized (this) {
+                    files = result;
+                }
+                if (key != null) {
+                    synchronized (pending) {
+                        pending.remove(key);
+                    }
+                }
+            }
+        }
+
+        // Returns null if the directory hasn't been listed yet.
+        synchronized File[] getFiles()
+        {
+            return files;
+        }
+    }
+
+    // Like File.isDirectory(), but if we have a listing of the parent
+    // directory, the answer is remembered there.
+    public static boolean isDirectory(File file)
+    {
+        if (file.isLocal()) {
+            File parent = file.getParentFile();
+            if (parent != null) {
+                Listing listing;
+                synchronized (cache) {
+                    listing = (Listing) cache.get(parent.canonicalPath());
+                }
+                if (listing != null)
+                    return listing.isDirectory(file);
+            }
+        }
+        return file.isDirectory();
+    }
+
+    // Called when memory is short.
+    public static void releaseCache()
+    {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    // Returns the cached files in dir if they're up to date, without
+    // listing the directory.
+    private static File[] getCachedFiles(File dir)
+    {
+        if (!dir.isLocal())
+            return null;
+        Listing listing;
+        synchronized (cache) {
+            listing = (Listing) cache.get(dir.canonicalPath());
+        }
+        if (listing != null &&
+            System.currentTimeMillis() - listing.checked < CHECK_INTERVAL)
+            return listing.files;
+        return null;
+    }
+
+    private static Listing getListing(File dir)
+    {
+        final String key = dir.canonicalPath();
+        if (key == null)
+            return null;
+        Listing listing;
+        synchronized (cache) {
+            listing = (Listing) cache.get(key);
+        }
+        final long now = System.currentTimeMillis();
+        if (listing != null) {
+            if (now - listing.checked < CHECK_INTERVAL)
+                return listing;
+            if (dir.lastModified() == listing.lastModified) {
+                listing.checked = now;
+                return listing;
+            }
+        }
+        // Get the modification time first, so a change made while we're
+        // listing the directory will be noticed next time.
+        final long lastModified = dir.lastModified();
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            synchronized (cache) {
+                cache.remove(key);
+            }
+            return null;
+        }
+        listing = new Listing(files, lastModified);
+        synchronized (cache) {
+            cache.put(key, listing);
+        }
+        return listing;
+    }
+}
@@ -22,10 +22,17 @@
 package org.armedbear.j;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public final class FilenameCompletion
 {
+    // Directories that haven't been listed after this many milliseconds are
+    // left out. Their listings are added to FileListingCache when they
+    // arrive, so they will be there the next time.
+    private static final long LISTING_TIMEOUT = 1000;
+
     private final File currentDirectory;
     private final String sourcePath;
     private final boolean ignoreCase;
@@ -33,6 +40,9 @@ public final class FilenameCompletion
     private String prefix;
     private ArrayList list;
 
+    // The listings that were searched, for listFuzzyMatches().
+    private final ArrayList listings = new ArrayList();
+
     public FilenameCompletion(File directory, String prefix,
         String sourcePath, boolean ignoreCase)
     {
@@ -49,6 +59,96 @@ public final class FilenameCompletion
         return list;
     }
 
+    public boolean isDirectory(File file)
+    {
+        return FileListingCache.isDirectory(file);
+    }
+
+    // Returns the files in the directories that were searched whose names
+    // contain the characters of the prefix in the same order, best match
+    // first.
+    public List listFuzzyMatches()
+    {
+        ArrayList matches = new ArrayList();
+        if (prefix == null || prefix.length() == 0)
+            return matches;
+        final boolean fold = ignoreCase || Utilities.isLowerCase(prefix);
+        final ArrayList scores = new ArrayList();
+        for (int i = 0; i < listings.size(); i++) {
+            File[] files = (File[]) listings.get(i);
+            for (int j = 0; j < files.length; j++) {
+                int score = fuzzyScore(prefix, files[j].getName(), fold);
+                if (score >= 0) {
+                    matches.add(files[j]);
+                    scores.add(new Integer(score));
+                }
+            }
+        }
+        final ArrayList sorted = new ArrayList(matches.size());
+        for (int i = 0; i < matches.size(); i++)
+            sorted.add(new Object[] { matches.get(i), scores.get(i) });
+        Collections.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2)
+            {
+                Object[] a1 = (Object[]) o1;
+                Object[] a2 = (Object[]) o2;
+                int n = ((Integer) a2[1]).intValue() - ((Integer) a1[1]).intValue();
+                if (n != 0)
+                    return n;
+                String name1 = ((File) a1[0]).getName();
+                String name2 = ((File) a2[0]).getName();
+                if (name1.length() != name2.length())
+                    return name1.length() - name2.length();
+                return name1.compareTo(name2);
+            }
+        });
+        matches.clear();
+        for (int i = 0; i < sorted.size(); i++)
+            matches.add(((Object[]) sorted.get(i))[0]);
+        return matches;
+    }
+
+    // Returns -1 if the characters of pattern don't all occur in name in the
+    // same order. Otherwise, the higher the score, the better the match.
+    // Matches at the start of the name or of a word in it, and runs of
+    // matching characters, count for more.
+    public static int fuzzyScore(String pattern, String name, boolean ignoreCase)
+    {
+        final int patternLength = pattern.length();
+        final int length = name.length();
+        int score = 0;
+        int last = -2;
+        int j = 0;
+        for (int i = 0; i < patternLength; i++) {
+            char p = pattern.charAt(i);
+            if (ignoreCase)
+                p = Character.toLowerCase(p);
+            while (j < length) {
+                char c = name.charAt(j);
+                if ((ignoreCase ? Character.toLowerCase(c) : c) == p)
+                    break;
+                ++j;
+            }
+            if (j == length)
+                return -1;
+            if (j == 0)
+                score += 8;
+            else if (j == last + 1)
+                score += 5;
+            else {
+                char before = name.charAt(j - 1);
+                if (!Character.isLetterOrDigit(before) ||
+                    (Character.isLowerCase(before) &&
+                     Character.isUpperCase(name.charAt(j))))
+                    score += 4; // Start of a word.
+                else
+                    score += 1;
+            }
+            last = j++;
+        }
+        return score;
+    }
+
     private void initialize()
     {
         list = new ArrayList();
@@ -84,58 +184,77 @@ public final class FilenameCompletion
                 // No such directory relative to current directory.
                 // Look in source path.
                 if (sourcePath != null) {
-                    List sourcePathDirectories = Utilities.getDirectoriesInPath(sourcePath);
-                    for (int i = 0; i < sourcePathDirectories.size(); i++) {
-                        File sourcePathDirectory =
-                            File.getInstance((String) sourcePathDirectories.get(i));
-                        dir = File.getInstance(sourcePathDirectory, dirName);
-                        if (dir != null && dir.isDirectory())
-                            addCompletionsFromDirectory(list, dir, prefix);
-                    }
+                    ArrayList dirs = new ArrayList();
+                    addSourcePathDirectories(dirs, dirName);
+                    addCompletionsFromDirectories(list, dirs, prefix);
                 }
             }
         } else {
-            // Short name.
-            // Current directory.
-            addCompletionsFromDirectory(list, currentDirectory, prefix);
-            // Source path.
-            if (sourcePath != null) {
-                List sourcePathDirectories = Utilities.getDirectoriesInPath(sourcePath);
-                for (int i = 0; i < sourcePathDirectories.size(); i++) {
-                    File sourcePathDirectory =
-                        File.getInstance((String) sourcePathDirectories.get(i));
-                    if (sourcePathDirectory != null)
-                        addCompletionsFromDirectory(list, sourcePathDirectory,
-                            prefix);
-                }
-            }
+            // Short name. Current directory, then source path.
+            ArrayList dirs = new ArrayList();
+            dirs.add(currentDirectory);
+            if (sourcePath != null)
+                addSourcePathDirectories(dirs, null);
+            addCompletionsFromDirectories(list, dirs, prefix);
+        }
+    }
+
+    // Adds dirName (or, if dirName is null, the directory itself) in each of
+    // the source path directories to dirs.
+    private void addSourcePathDirectories(List dirs, String dirName)
+    {
+        List sourcePathDirectories = Utilities.getDirectoriesInPath(sourcePath);
+        for (int i = 0; i < sourcePathDirectories.size(); i++) {
+            File dir = File.getInstance((String) sourcePathDirectories.get(i));
+            if (dir != null && dirName != null)
+                dir = File.getInstance(dir, dirName);
+            if (dir != null)
+                dirs.add(dir);
         }
     }
 
     private void addCompletionsFromDirectory(List list, File directory,
         String prefix)
     {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            final int limit = files.length;
-            if (prefix != null && prefix.length() > 0) {
-                final int prefixLength = prefix.length();
-                for (int i = 0; i < limit; i++) {
-                    final File file = files[i];
-                    final String name = file.getName();
-                    final boolean isMatch;
-                    if (ignoreCase)
-                        isMatch = name.regionMatches(true, 0, prefix, 0,
-                            prefixLength);
-                    else
-                        isMatch = name.startsWith(prefix);
-                    if (isMatch)
-                        list.add(file);
-                }
-            } else {
-                for (int i = 0; i < limit; i++)
-                    list.add(files[i]);
+        ArrayList dirs = new ArrayList();
+        dirs.add(directory);
+        addCompletionsFromDirectories(list, dirs, prefix);
+    }
+
+    // The directories are listed in parallel, so one on a slow file system
+    // doesn't hold up the others, and we don't wait more than
+    // LISTING_TIMEOUT for any of them.
+    private void addCompletionsFromDirectories(List list, List dirs,
+        String prefix)
+    {
+        File[][] results = FileListingCache.listFiles(dirs, LISTING_TIMEOUT);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null)
+                addCompletions(list, results[i], prefix);
+        }
+    }
+
+    private void addCompletions(List list, File[] files, String prefix)
+    {
+        listings.add(files);
+        final int limit = files.length;
+        if (prefix != null && prefix.length() > 0) {
+            final int prefixLength = prefix.length();
+            for (int i = 0; i < limit; i++) {
+                final File file = files[i];
+                final String name = file.getName();
+                final boolean isMatch;
+                if (ignoreCase)
+                    isMatch = name.regionMatches(true, 0, prefix, 0,
+                        prefixLength);
+                else
+                    isMatch = name.startsWith(prefix);
+                if (isMatch)
+                    list.add(file);
             }
+        } else {
+            for (int i = 0; i < limit; i++)
+                list.add(files[i]);
         }
     }
 }
@@ -21,12 +21,23 @@
 
 package org.armedbear.j;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
@@ -34,6 +45,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.undo.CompoundEdit;
 
 public final class FindInFiles extends Replacement implements Constants,
@@ -70,6 +82,49 @@ public final class FindInFiles extends Replacement implements Constants,
 
     private final String encoding;
 
+    // Files smaller than this are read, larger ones are mapped.
+    private static final int MAP_THRESHOLD = 0x10000;
+
+    // Larger files are read a line at a time. A file that is searched all at
+    // once is decoded into a String twice its size, so this is shared among
+    // the searchers: each one streams files larger than its share of it,
+    // but no smaller than MIN_STREAM_THRESHOLD.
+    private static final int STREAM_THRESHOLD = 0x4000000;
+    private static final int MIN_STREAM_THRESHOLD = 0x100000;
+
+    // Number of bytes checked for nulls to decide if a file is binary.
+    private static final int BINARY_CHECK_SIZE = 4096;
+
+    // Maximum number of files waiting to be searched.
+    private static final int MAX_QUEUED = 1024;
+
+    // Files found by the directory walker and not yet taken by a searcher.
+    private final LinkedList queue = new LinkedList();
+    private boolean walkFinished;
+    private int nextSequenceNumber;
+
+    // Set by the directory walker when the findInFilesIndex preference is
+    // true.
+    private TrigramIndex index;
+    private int[] trigrams;
+
+    // Results not yet added to the output buffer, by sequence number. Results
+    // are added in the order the files were found, whichever searcher thread
+    // finishes first.
+    private final HashMap pending = new HashMap();
+    private int nextToAppend;
+
+    // Result of a file that wasn't examined at all (binary or unreadable).
+    private static final Object SKIPPED = new Object();
+
+    // Minimum number of milliseconds between updates of the display while
+    // the search is running.
+    private static final int UPDATE_INTERVAL = 50;
+
+    private boolean updatePending;
+    private long lastUpdate;
+    private boolean searchFinished; // Only accessed in the event dispatch thread.
+
     public FindInFiles(Editor editor)
     {
         super(editor);
@@ -223,6 +278,12 @@ public final class FindInFiles extends Replacement implements Constants,
     private void runInternal()
     {
         frame.setWaitCursor();
+        Thread[] searchers = startSearchers();
+        final boolean useIndex =
+            Editor.preferences().getBooleanProperty(Property.FIND_IN_FILES_INDEX);
+        if (useIndex)
+            trigrams = TrigramIndex.getTrigrams(this);
+        ArrayList indexes = new ArrayList();
         for (Iterator it = filters.iterator(); it.hasNext();) {
             Filter filter = (Filter) it.next();
             File dir = null;
@@ -234,16 +295,25 @@ public final class FindInFiles extends Replacement implements Constants,
             }
             if (dir == null)
                 dir = getEditor().getCurrentDirectory();
+            if (useIndex) {
+                index = TrigramIndex.getIndex(dir);
+                if (index != null && !indexes.contains(index))
+                    indexes.add(index);
+            }
             searchDirectory(dir, filter);
             // Did the user cancel?
             if (cancelled)
                 break;
         }
+        finishSearching(searchers);
+        for (int i = 0; i < indexes.size(); i++)
+            ((TrigramIndex) indexes.get(i)).save();
         if (getReplaceWith() == null) {
             // Find in files, not replace in files.
             Runnable runnable = new Runnable() {
                 public void run()
                 {
+                    searchFinished = true;
                     frame.setDefaultCursor();
                     if (outputBuffer != null) {
                         if (cancelled)
@@ -286,8 +356,165 @@ public final class FindInFiles extends Replacement implements Constants,
     public final void cancel()
     {
         cancelled = true;
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+    }
+
+    private Thread[] startSearchers()
+    {
+        final Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        }
+        catch (Exception e) {
+            Log.error(e);
+            return new Thread[0];
+        }
+        final int count = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final int streamThreshold =
+            Math.max(MIN_STREAM_THRESHOLD, STREAM_THRESHOLD / count);
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            threads[i] = new Thread(new Searcher(charset, streamThreshold),
+                                    "FindInFiles");
+            threads[i].setDaemon(true);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    // Lets the searchers finish the files in the queue and waits for them.
+    private void finishSearching(Thread[] searchers)
+    {
+        synchronized (queue) {
+            walkFinished = true;
+            queue.notifyAll();
+        }
+        try {
+            for (int i = 0; i < searchers.length; i++)
+                searchers[i].join();
+        }
+        catch (InterruptedException e) {
+            Log.error(e);
+        }
+    }
+
+    // Called by the directory walker. Blocks while the queue is full.
+    private void enqueue(File file, TrigramIndex index)
+    {
+        synchronized (queue) {
+            while (queue.size() >= MAX_QUEUED && !cancelled) {
+                try {
+                    queue.wait();
+                }
+                catch (InterruptedException e) {
+                    Log.error(e);
+                    return;
+                }
+            }
+            queue.add(new Task(nextSequenceNumber++, file, index));
+            queue.notifyAll();
+        }
+    }
+
+    // Returns null when there are no more files to search.
+    private Task nextTask()
+    {
+        synchronized (queue) {
+            while (queue.size() == 0) {
+                if (walkFinished || cancelled)
+                    return null;
+                try {
+                    queue.wait();
+                }
+                catch (InterruptedException e) {
+                    Log.error(e);
+                    return null;
+                }
+            }
+            if (cancelled)
+                return null;
+            Task task = (Task) queue.removeFirst();
+            if (queue.size() == MAX_QUEUED - 1)
+                queue.notifyAll(); // Wake up the walker.
+            return task;
+        }
     }
 
+    // Every sequence number must be accounted for, even if the file was
+    // skipped, or nothing after it will ever be added to the output buffer.
+    private void addResult(int sequenceNumber, Object result)
+    {
+        synchronized (pending) {
+            pending.put(new Integer(sequenceNumber), result);
+            ArrayList ready = null;
+            Object r;
+            while ((r = pending.remove(new Integer(nextToAppend))) != null) {
+                if (ready == null)
+                    ready = new ArrayList();
+                ready.add(r);
+                ++nextToAppend;
+            }
+            // The output buffer is updated while we still hold the lock on
+            // pending, so batches from different threads can't overtake each
+            // other.
+            if (ready != null)
+                appendResults(ready);
+        }
+    }
+
+    private void appendResults(ArrayList ready)
+    {
+        ArrayList lines = new ArrayList();
+        for (int i = 0; i < ready.size(); i++) {
+            Object r = ready.get(i);
+            if (r == SKIPPED)
+                continue;
+            ++numFilesExamined;
+            if (r instanceof Result) {
+                Result result = (Result) r;
+                if (!listEachOccurrence && results.size() == 0)
+                    lines.add(new TextLine("Found in:"));
+                lines.add(new FileLine(result.file, listEachOccurrence));
+                results.add(result.file);
+                if (result.lines != null)
+                    lines.addAll(result.lines);
+            }
+        }
+        if (lines.size() > 0) {
+            outputBuffer.appendLines(lines);
+            requestUpdate();
+        }
+    }
+
+    // However fast results come in, the display is updated at most once per
+    // UPDATE_INTERVAL.
+    private void requestUpdate()
+    {
+        final long delay;
+        synchronized (updateDisplayRunnable) {
+            if (updatePending)
+                return;
+            updatePending = true;
+            delay = lastUpdate + UPDATE_INTERVAL - System.currentTimeMillis();
+        }
+        if (delay > 0) {
+            Timer timer = new Timer((int) delay, new ActionListener() {
+                public void actionPerformed(ActionEvent e)
+                {
+                    updateDisplayRunnable.run();
+                }
+            });
+            timer.setRepeats(false);
+            timer.start();
+        } else
+            SwingUtilities.invokeLater(updateDisplayRunnable);
+    }
+
+    // Runs in the background thread. Files that are loaded in buffers are
+    // searched right here; everything else is queued for the searchers.
     private void searchDirectory(File dir, Filter filter)
     {
         String[] files = dir.list();
@@ -304,77 +531,45 @@ public final class FindInFiles extends Replacement implements Constants,
             }
             if (!filter.accepts(files[i]))
                 continue;
-            if (isBinaryFile(file))
-                continue;
             if (searchFilesInMemory) {
                 Buffer buf = Editor.getBufferList().findBuffer(file);
                 if (buf != null && buf.isLoaded()) {
-                    Position pos = findInBuffer(buf);
-                    if (pos != null) {
-                        results.add(file);
-                        processFile(file, buf.getMode(), pos);
+                    final int sequenceNumber;
+                    synchronized (queue) {
+                        sequenceNumber = nextSequenceNumber++;
+                    }
+                    Object result = SKIPPED;
+                    try {
+                        if (!isBinaryFile(file))
+                            result = searchBuffer(file, buf);
+                    }
+                    finally {
+                        addResult(sequenceNumber, result);
                     }
-                    ++numFilesExamined;
                     continue;
                 }
                 // No buffer found, fall through...
             }
             Debug.assertTrue(outputBuffer != null);
-            processFile(file);
-            ++numFilesExamined;
-        }
-    }
-
-    private void processFile(File file)
-    {
-        try {
-            boolean update = false;
-            BufferedReader reader =
-                new BufferedReader(new InputStreamReader(file.getInputStream(),
-                                                         encoding));
-            int lineNumber = 0;
-            int matches = 0;
-            final boolean delimited = wholeWordsOnly();
-            String s;
-            while ((s = reader.readLine()) != null) {
-                ++lineNumber;
-                boolean found = delimited ? findDelimited(s, mode) : find(s);
-                if (found) {
-                    try {
-                        outputBuffer.lockWrite();
-                    }
-                    catch (InterruptedException e) {
-                        Log.error(e);
-                        return;
-                    }
-                    try {
-                        if (matches == 0) {
-                            // First match in this file.
-                            if (!listEachOccurrence && results.size() == 0)
-                                outputBuffer.appendLine("Found in:");
-                            outputBuffer.appendFileLine(file,
-                                                        listEachOccurrence);
-                            results.add(file);
-                            update = true;
+            if (index != null) {
+                switch (index.check(file, trigrams)) {
+                    case TrigramIndex.BINARY:
+                        continue;
+                    case TrigramIndex.NOT_FOUND:
+                        synchronized (pending) {
+                            ++numFilesExamined;
                         }
-                        ++matches;
-                        if (listEachOccurrence)
-                            outputBuffer.appendOccurrenceLine(s, lineNumber);
-                        else
-                            break;
-                    }
-                    finally {
-                        outputBuffer.renumber();
-                        outputBuffer.unlockWrite();
-                    }
+                        continue;
+                    case TrigramIndex.FOUND:
+                        enqueue(file, null);
+                        continue;
+                    default:
+                        // Search the file and bring the index up to date.
+                        enqueue(file, index);
+                        continue;
                 }
             }
-            // Update display once per file.
-            if (update)
-                SwingUtilities.invokeLater(updateDisplayRunnable);
-        }
-        catch (IOException e) {
-            Log.error(e);
+            enqueue(file, null);
         }
     }
 
@@ -383,14 +578,10 @@ public final class FindInFiles extends Replacement implements Constants,
     {
         try {
             InputStream in = file.getInputStream();
-            byte[] bytes = new byte[4096];
+            byte[] bytes = new byte[BINARY_CHECK_SIZE];
             int bytesRead = in.read(bytes);
             in.close();
-            for (int i = 0; i < bytesRead; i++) {
-                if (bytes[i] == 0)
-                    return true;
-            }
-            return false;
+            return isBinary(bytes, bytesRead);
         }
         catch (IOException e) {
             Log.error(e);
@@ -398,30 +589,47 @@ public final class FindInFiles extends Replacement implements Constants,
         }
     }
 
-    private void processFile(File file, Mode mode, Position pos)
+    private static boolean isBinary(byte[] bytes, int length)
     {
-        Debug.assertTrue(outputBuffer != null);
-        try {
-            outputBuffer.lockWrite();
-        }
-        catch (InterruptedException e) {
-            Log.error(e);
-            return;
-        }
-        try {
-            processFileInternal(file, mode, pos);
-            outputBuffer.renumber();
+        for (int i = Math.min(length, BINARY_CHECK_SIZE); i-- > 0;) {
+            if (bytes[i] == 0)
+                return true;
         }
-        finally {
-            outputBuffer.unlockWrite();
+        return false;
+    }
+
+    // Returns null if the pattern isn't found.
+    private Result searchBuffer(File file, Buffer buf)
+    {
+        Position pos = findInBuffer(buf);
+        if (pos == null)
+            return null;
+        Result result = new Result(file);
+        if (listEachOccurrence) {
+            final Mode mode = buf.getMode();
+            result.lines = new ArrayList();
+            result.lines.add(new OccurrenceLine(pos.getLine()));
+            while (pos.getLine().next() != null) {
+                pos.moveTo(pos.getLine().next(), 0);
+                if ((pos = find(mode, pos)) != null)
+                    result.lines.add(new OccurrenceLine(pos.getLine()));
+                else
+                    break;
+            }
         }
-        // Update display once per file.
-        SwingUtilities.invokeLater(updateDisplayRunnable);
+        return result;
     }
 
     private final Runnable updateDisplayRunnable = new Runnable() {
         public void run()
         {
+            synchronized (this) {
+                updatePending = false;
+                lastUpdate = System.currentTimeMillis();
+            }
+            // A late update mustn't undo what the completion runnable did.
+            if (searchFinished)
+                return;
             Position end = null;
             for (EditorIterator iter = new EditorIterator(); iter.hasNext();) {
                 Editor ed = iter.nextEditor();
@@ -438,20 +646,217 @@ public final class FindInFiles extends Replacement implements Constants,
         }
     };
 
-    private void processFileInternal(File file, Mode mode, Position pos)
+    private static final class Task
     {
-        if (!listEachOccurrence && results.size() == 1)
-            outputBuffer.appendLine("Found in:");
-        outputBuffer.appendFileLine(file, listEachOccurrence);
-        if (listEachOccurrence) {
-            outputBuffer.appendOccurrenceLine(pos.getLine());
-            while (pos.getLine().next() != null) {
-                pos.moveTo(pos.getLine().next(), 0);
-                if ((pos = find(mode, pos)) != null)
-                    outputBuffer.appendOccurrenceLine(pos.getLine());
-                else
+        final int sequenceNumber;
+        final File file;
+        final TrigramIndex index; // Null unless the file needs indexing.
+
+        Task(int sequenceNumber, File file, TrigramIndex index)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.file = file;
+            this.index = index;
+        }
+    }
+
+    // A file in which the pattern was found.
+    private static final class Result
+    {
+        final File file;
+        ArrayList lines; // Occurrence lines, if listEachOccurrence is true.
+
+        Result(File file)
+        {
+            this.file = file;
+        }
+    }
+
+    // Searches files from the queue. Each searcher has its own copy of the
+    // search, since find() keeps state, and its own decoder.
+    private final class Searcher implements Runnable
+    {
+        private final Search search;
+        private final CharsetDecoder decoder;
+        private final boolean delimited;
+
+        // For patterns that are plain case-sensitive strings, a file can be
+        // rejected without breaking it into lines.
+        private final String quickPattern;
+
+        // Files larger than this are streamed.
+        private final int streamThreshold;
+
+        private byte[] bytes = new byte[MAP_THRESHOLD];
+
+        Searcher(Charset charset, int streamThreshold)
+        {
+            this.streamThreshold = streamThreshold;
+            search = new Search(getPattern(), ignoreCase(), wholeWordsOnly());
+            search.setRegularExpression(isRegularExpression());
+            search.setRE(getRE());
+            delimited = wholeWordsOnly();
+            decoder = charset.newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+            if (!isRegularExpression() && !ignoreCase())
+                quickPattern = getPattern();
+            else
+                quickPattern = null;
+        }
+
+        public void run()
+        {
+            Task task;
+            while ((task = nextTask()) != null) {
+                Object result = SKIPPED;
+                try {
+                    result = searchFile(task.file, task.index);
+                }
+                catch (Throwable t) {
+                    Log.error(t);
+                }
+                finally {
+                    addResult(task.sequenceNumber, result);
+                }
+            }
+        }
+
+        // Returns SKIPPED if the file is binary or can't be read, null if
+        // the pattern isn't found. If index isn't null, the file's entry is
+        // updated.
+        private Object searchFile(File file, TrigramIndex index)
+        {
+            final long lastModified = file.lastModified();
+            final long length = file.length();
+            if (length > streamThreshold)
+                return searchStream(file);
+            String text = null;
+            try {
+                FileInputStream in = new FileInputStream(file.canonicalPath());
+                try {
+                    final int size = (int) length;
+                    ByteBuffer buf;
+                    if (size < MAP_THRESHOLD || Platform.isPlatformWindows()) {
+                        // On Windows a mapped file can't be replaced until
+                        // the mapping is garbage collected, which would get
+                        // in the way of replace in files.
+                        if (bytes.length < size)
+                            bytes = new byte[size];
+                        int total = 0;
+                        int n;
+                        while (total < size && (n = in.read(bytes, total, size - total)) > 0)
+                            total += n;
+                        buf = isBinary(bytes, total) ? null : ByteBuffer.wrap(bytes, 0, total);
+                    } else {
+                        FileChannel channel = in.getChannel();
+                        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                          Math.min(size, channel.size()));
+                        for (int i = Math.min(buf.limit(), BINARY_CHECK_SIZE); i-- > 0;) {
+                            if (buf.get(i) == 0) {
+                                buf = null;
+                                break;
+                            }
+                        }
+                    }
+                    if (buf != null) {
+                        decoder.reset();
+                        text = decoder.decode(buf).toString();
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                Log.error(e);
+                return SKIPPED;
+            }
+            if (index != null)
+                index.update(file, lastModified, length, text);
+            if (text == null)
+                return SKIPPED; // Binary.
+            if (quickPattern != null && text.indexOf(quickPattern) < 0)
+                return null;
+            // Same line separators as BufferedReader.readLine().
+            Result result = null;
+            final int limit = text.length();
+            int lineNumber = 0;
+            int begin = 0;
+            while (begin < limit) {
+                int end = begin;
+                while (end < limit) {
+                    char c = text.charAt(end);
+                    if (c == '\n' || c == '\r')
+                        break;
+                    ++end;
+                }
+                result = searchLine(file, text.substring(begin, end),
+                                    ++lineNumber, result);
+                if (result != null && !listEachOccurrence)
+                    break;
+                begin = end + 1;
+                if (end < limit && text.charAt(end) == '\r' &&
+                    begin < limit && text.charAt(begin) == '\n')
+                    ++begin;
+                if (cancelled)
                     break;
             }
+            return result;
+        }
+
+        // For very large files.
+        private Object searchStream(File file)
+        {
+            Result result = null;
+            try {
+                InputStream in = new BufferedInputStream(file.getInputStream());
+                try {
+                    in.mark(BINARY_CHECK_SIZE);
+                    byte[] buf = new byte[BINARY_CHECK_SIZE];
+                    int total = 0;
+                    int n;
+                    while (total < buf.length && (n = in.read(buf, total, buf.length - total)) > 0)
+                        total += n;
+                    if (isBinary(buf, total))
+                        return SKIPPED;
+                    in.reset();
+                    BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(in, encoding));
+                    int lineNumber = 0;
+                    String s;
+                    while ((s = reader.readLine()) != null) {
+                        result = searchLine(file, s, ++lineNumber, result);
+                        if (result != null && !listEachOccurrence)
+                            break;
+                        if (cancelled)
+                            break;
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                Log.error(e);
+            }
+            return result;
+        }
+
+        private Result searchLine(File file, String s, int lineNumber,
+            Result result)
+        {
+            boolean found = delimited ? search.findDelimited(s, mode) : search.find(s);
+            if (found) {
+                if (result == null)
+                    result = new Result(file);
+                if (listEachOccurrence) {
+                    if (result.lines == null)
+                        result.lines = new ArrayList();
+                    result.lines.add(new OccurrenceLine(s, lineNumber));
+                }
+            }
+            return result;
         }
     }
 
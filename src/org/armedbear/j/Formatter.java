@@ -46,6 +46,30 @@ public abstract class Formatter implements Constants
         return false;
     }
 
+    // Returns the line where parseBuffer() should start: the nearest line at
+    // or before the first line changed since the buffer was last parsed whose
+    // flags are equal to neutral, or the first line of the buffer.
+    protected final Line getFirstLineToParse(int neutral)
+    {
+        Line line = null;
+        if (!buffer.needsRenumbering())
+            line = buffer.getLine(buffer.getParseFrom());
+        if (line == null)
+            return buffer.getFirstLine();
+        while (line.flags() != neutral && line.previous() != null)
+            line = line.previous();
+        return line;
+    }
+
+    // Returns the number of the last changed line. Once parseBuffer() has
+    // passed it, it can stop at the first line whose flags are unchanged.
+    protected final int getLastLineToParse()
+    {
+        if (buffer.needsRenumbering())
+            return Integer.MAX_VALUE;
+        return buffer.getParseTo();
+    }
+
     protected final boolean isKeyword(String s)
     {
         return buffer.isKeyword(s);
@@ -50,6 +50,15 @@ public final class GlobalTag extends Tag
     return filename;
   }
 
+  public static GlobalTag makeGlobalTag(String name, String filename,
+                                        String signature,
+                                        String canonicalSignature)
+  {
+    if (canonicalSignature == null)
+      return new GlobalTag(name, signature, filename);
+    return new GlobalTag(name, signature, filename, canonicalSignature);
+  }
+
   // Return tag name from line in tag file.
   public static String getTagName(Line line)
   {
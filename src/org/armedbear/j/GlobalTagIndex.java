@@ -0,0 +1,517 @@
+/*
+ * GlobalTagIndex.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// A tag file, read (on most platforms, mapped) into memory as it is, and
+// searched in place. GlobalTag objects are only made for the tags a lookup
+// returns, or for all of them if getTags() is called.
+//
+// The file is written by GlobalTagIndex.Builder. All numbers are big-endian.
+//
+//     header     magic, version, number of sections, tags and strings
+//     sections   one record per source file: name, last modified time,
+//                length, first tag, number of tags
+//     tags       one record per tag: name, method name, file name,
+//                signature, canonical signature (-1 if none), arity
+//     orders     tag numbers sorted by name, case-folded name, method name
+//                and case-folded method name; tags with the same key are
+//                in the order they appear in the file
+//     strings    offset of each string, then the strings themselves, each
+//                a length followed by that many bytes of UTF-8
+//
+// Names, file names and signatures in the tag and section records are
+// indexes into the string table, in which each distinct string appears
+// once.
+public final class GlobalTagIndex
+{
+    private static final int MAGIC = 0x4a544147; // "JTAG"
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int SECTION_SIZE = 28;
+    private static final int TAG_SIZE = 24;
+
+    // Offsets of the fields in a tag record.
+    private static final int NAME                = 0;
+    private static final int METHOD_NAME         = 4;
+    private static final int FILENAME            = 8;
+    private static final int SIGNATURE           = 12;
+    private static final int CANONICAL_SIGNATURE = 16;
+    private static final int ARITY               = 20;
+
+    // Sort orders.
+    private static final int BY_NAME               = 0;
+    private static final int BY_FOLDED_NAME        = 1;
+    private static final int BY_METHOD_NAME        = 2;
+    private static final int BY_FOLDED_METHOD_NAME = 3;
+
+    private final ByteBuffer buffer;
+    private final int sectionCount;
+    private final int tagCount;
+    private final int stringCount;
+    private final int tagsStart;
+    private final int ordersStart;
+    private final int stringsStart;
+
+    // All the tags, made the first time getTags() is called.
+    private List tags;
+
+    private GlobalTagIndex(ByteBuffer buffer, int sectionCount, int tagCount,
+        int stringCount)
+    {
+        this.buffer = buffer;
+        this.sectionCount = sectionCount;
+        this.tagCount = tagCount;
+        this.stringCount = stringCount;
+        tagsStart = HEADER_SIZE + sectionCount * SECTION_SIZE;
+        ordersStart = tagsStart + tagCount * TAG_SIZE;
+        stringsStart = ordersStart + tagCount * 16;
+    }
+
+    // Returns null if file isn't a tag file in the current format.
+    public static GlobalTagIndex open(File file)
+    {
+        try {
+            RandomAccessFile raf = file.getRandomAccessFile("r");
+            try {
+                final long size = raf.length();
+                if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                    return null;
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buffer;
+                // On Windows a mapped file can't be deleted until the mapping
+                // is garbage collected, and tag files are replaced, not
+                // rewritten.
+                if (Platform.isPlatformWindows()) {
+                    buffer = ByteBuffer.allocate((int) size);
+                    while (buffer.hasRemaining())
+                        if (channel.read(buffer) < 0)
+                            return null;
+                } else
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                    return null;
+                final int sectionCount = buffer.getInt(8);
+                final int tagCount = buffer.getInt(12);
+                final int stringCount = buffer.getInt(16);
+                if (sectionCount < 0 || tagCount < 0 || stringCount < 0)
+                    return null;
+                final long minimum = HEADER_SIZE +
+                    (long) sectionCount * SECTION_SIZE +
+                    (long) tagCount * (TAG_SIZE + 16) +
+                    (long) stringCount * 8;
+                if (minimum > size)
+                    return null;
+                return new GlobalTagIndex(buffer, sectionCount, tagCount,
+                    stringCount);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    public final int getTagCount()
+    {
+        return tagCount;
+    }
+
+    public synchronized List getTags()
+    {
+        if (tags == null) {
+            ArrayList list = new ArrayList(tagCount);
+            for (int i = 0; i < tagCount; i++)
+                list.add(getTag(i));
+            tags = list;
+        }
+        return tags;
+    }
+
+    public final int getSectionCount()
+    {
+        return sectionCount;
+    }
+
+    public String getSectionName(int i)
+    {
+        return getString(buffer.getInt(HEADER_SIZE + i * SECTION_SIZE));
+    }
+
+    public long getSectionLastModified(int i)
+    {
+        return buffer.getLong(HEADER_SIZE + i * SECTION_SIZE + 4);
+    }
+
+    public long getSectionLength(int i)
+    {
+        return buffer.getLong(HEADER_SIZE + i * SECTION_SIZE + 12);
+    }
+
+    public List getSectionTags(int i)
+    {
+        final int first = buffer.getInt(HEADER_SIZE + i * SECTION_SIZE + 20);
+        final int count = buffer.getInt(HEADER_SIZE + i * SECTION_SIZE + 24);
+        ArrayList list = new ArrayList(count);
+        for (int j = 0; j < count; j++)
+            list.add(getTag(first + j));
+        return list;
+    }
+
+    // Tags whose method name is name. If arity is not -1, tags with a known
+    // arity that is different are left out. Returns null if there are no
+    // matches.
+    public List findMethod(String name, int arity)
+    {
+        return makeTags(lookup(BY_METHOD_NAME, name), arity);
+    }
+
+    // Tags whose name is name or, if the name is not qualified, whose method
+    // name is name. Returns null if there are no matches.
+    public List find(String name, int arity, boolean ignoreCase,
+        boolean isQualified)
+    {
+        int[] indexes = ignoreCase ?
+            lookup(BY_FOLDED_NAME, fold(name)) : lookup(BY_NAME, name);
+        if (!isQualified) {
+            indexes = merge(indexes, ignoreCase ?
+                lookup(BY_FOLDED_METHOD_NAME, fold(name)) :
+                lookup(BY_METHOD_NAME, name));
+        }
+        return makeTags(indexes, arity);
+    }
+
+    private List makeTags(int[] indexes, int arity)
+    {
+        List list = null;
+        for (int i = 0; i < indexes.length; i++) {
+            final int index = indexes[i];
+            if (arity >= 0) {
+                final int n = getField(index, ARITY);
+                if (n >= 0 && n != arity)
+                    continue;
+            }
+            if (list == null)
+                list = new ArrayList();
+            list.add(getTag(index));
+        }
+        return list;
+    }
+
+    private GlobalTag getTag(int index)
+    {
+        final int canonicalSignature = getField(index, CANONICAL_SIGNATURE);
+        return GlobalTag.makeGlobalTag(getString(getField(index, NAME)),
+            getString(getField(index, FILENAME)),
+            getString(getField(index, SIGNATURE)),
+            canonicalSignature >= 0 ? getString(canonicalSignature) : null);
+    }
+
+    private int getField(int index, int field)
+    {
+        return buffer.getInt(tagsStart + index * TAG_SIZE + field);
+    }
+
+    private String getString(int i)
+    {
+        if (i < 0 || i >= stringCount)
+            return null;
+        final int offset = buffer.getInt(stringsStart + i * 4);
+        final int length = buffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + 4);
+        b.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    // The key a tag is sorted by in order.
+    private String getKey(int order, int index)
+    {
+        switch (order) {
+            case BY_NAME:
+                return getString(getField(index, NAME));
+            case BY_FOLDED_NAME:
+                return fold(getString(getField(index, NAME)));
+            case BY_METHOD_NAME:
+                return getString(getField(index, METHOD_NAME));
+            case BY_FOLDED_METHOD_NAME:
+                return fold(getString(getField(index, METHOD_NAME)));
+            default:
+                Debug.bug();
+                return null;
+        }
+    }
+
+    // Returns the tags whose key in order is key, in ascending order.
+    private int[] lookup(int order, String key)
+    {
+        final int start = ordersStart + order * tagCount * 4;
+        int low = 0;
+        int high = tagCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getKey(order, buffer.getInt(start + mid * 4)).compareTo(key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        int end = low;
+        while (end < tagCount &&
+            getKey(order, buffer.getInt(start + end * 4)).equals(key))
+            ++end;
+        int[] indexes = new int[end - low];
+        for (int i = low; i < end; i++)
+            indexes[i - low] = buffer.getInt(start + i * 4);
+        return indexes;
+    }
+
+    // Two strings fold to the same key if and only if equalsIgnoreCase() says
+    // they are equal.
+    private static String fold(String s)
+    {
+        if (s == null)
+            return "";
+        final int length = s.length();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] =
+                Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        return new String(chars);
+    }
+
+    // Merges two sorted arrays of indexes, leaving out duplicates.
+    private static int[] merge(int[] a, int[] b)
+    {
+        if (b.length == 0)
+            return a;
+        if (a.length == 0)
+            return b;
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            int n;
+            if (j == b.length || (i < a.length && a[i] <= b[j]))
+                n = a[i++];
+            else
+                n = b[j++];
+            if (k == 0 || result[k-1] != n)
+                result[k++] = n;
+        }
+        if (k == result.length)
+            return result;
+        int[] trimmed = new int[k];
+        System.arraycopy(result, 0, trimmed, 0, k);
+        return trimmed;
+    }
+
+    // Writes a tag file. Add each section, then its tags, then call write().
+    public static final class Builder
+    {
+        private final ArrayList strings = new ArrayList();
+        private final HashMap stringIndexes = new HashMap();
+        private final ArrayList sections = new ArrayList();
+        private final ArrayList tags = new ArrayList();
+
+        public void addSection(String name, long lastModified, long length)
+        {
+            sections.add(new SectionRecord(intern(name), lastModified,
+                length, tags.size()));
+        }
+
+        public void addTag(GlobalTag tag)
+        {
+            Debug.assertTrue(sections.size() > 0);
+            tags.add(new TagRecord(this, tag));
+            ++((SectionRecord) sections.get(sections.size() - 1)).tagCount;
+        }
+
+        private int intern(String s)
+        {
+            if (s == null)
+                return -1;
+            Integer index = (Integer) stringIndexes.get(s);
+            if (index == null) {
+                index = new Integer(strings.size());
+                strings.add(s);
+                stringIndexes.put(s, index);
+            }
+            return index.intValue();
+        }
+
+        public void write(File file) throws IOException
+        {
+            final int tagCount = tags.size();
+            final int stringCount = strings.size();
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(file.getOutputStream()));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sections.size());
+                out.writeInt(tagCount);
+                out.writeInt(stringCount);
+                for (int i = 0; i < sections.size(); i++) {
+                    SectionRecord section = (SectionRecord) sections.get(i);
+                    out.writeInt(section.name);
+                    out.writeLong(section.lastModified);
+                    out.writeLong(section.length);
+                    out.writeInt(section.firstTag);
+                    out.writeInt(section.tagCount);
+                }
+                for (int i = 0; i < tagCount; i++) {
+                    TagRecord tag = (TagRecord) tags.get(i);
+                    out.writeInt(tag.name);
+                    out.writeInt(tag.methodName);
+                    out.writeInt(tag.filename);
+                    out.writeInt(tag.signature);
+                    out.writeInt(tag.canonicalSignature);
+                    out.writeInt(tag.arity);
+                }
+                writeOrder(out, BY_NAME);
+                writeOrder(out, BY_FOLDED_NAME);
+                writeOrder(out, BY_METHOD_NAME);
+                writeOrder(out, BY_FOLDED_METHOD_NAME);
+                byte[][] bytes = new byte[stringCount][];
+                for (int i = 0; i < stringCount; i++)
+                    bytes[i] = ((String) strings.get(i)).getBytes("UTF-8");
+                int offset = HEADER_SIZE + sections.size() * SECTION_SIZE +
+                    tagCount * (TAG_SIZE + 16) + stringCount * 4;
+                for (int i = 0; i < stringCount; i++) {
+                    out.writeInt(offset);
+                    offset += 4 + bytes[i].length;
+                }
+                for (int i = 0; i < stringCount; i++) {
+                    out.writeInt(bytes[i].length);
+                    out.write(bytes[i]);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        private void writeOrder(DataOutputStream out, final int order)
+            throws IOException
+        {
+            ArrayList list = new ArrayList(tags);
+            // The sort is stable, so tags with the same key stay in order.
+            Collections.sort(list, new Comparator() {
+                public int compare(Object o1, Object o2)
+                {
+                    return ((TagRecord) o1).getKey(order).compareTo(
+                        ((TagRecord) o2).getKey(order));
+                }
+            });
+            for (int i = 0; i < list.size(); i++)
+                out.writeInt(((TagRecord) list.get(i)).number);
+        }
+    }
+
+    private static final class SectionRecord
+    {
+        final int name;
+        final long lastModified;
+        final long length;
+        final int firstTag;
+        int tagCount;
+
+        SectionRecord(int name, long lastModified, long length, int firstTag)
+        {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.firstTag = firstTag;
+        }
+    }
+
+    private static final class TagRecord
+    {
+        final int number;
+        final int name;
+        final int methodName;
+        final int filename;
+        final int signature;
+        final int canonicalSignature;
+        final int arity;
+
+        // Sort keys.
+        final String nameKey;
+        final String foldedNameKey;
+        final String methodNameKey;
+        final String foldedMethodNameKey;
+
+        TagRecord(Builder builder, GlobalTag tag)
+        {
+            number = builder.tags.size();
+            nameKey = tag.getName();
+            String s = tag.getMethodName();
+            methodNameKey = s != null ? s : "";
+            foldedNameKey = fold(nameKey);
+            foldedMethodNameKey = fold(methodNameKey);
+            name = builder.intern(nameKey);
+            methodName = builder.intern(methodNameKey);
+            filename = builder.intern(tag.getFileName());
+            signature = builder.intern(tag.getSignature());
+            canonicalSignature = builder.intern(tag.getCanonicalSignature());
+            arity = Expression.getArity(tag.getCanonicalSignature());
+        }
+
+        String getKey(int order)
+        {
+            switch (order) {
+                case BY_NAME:
+                    return nameKey;
+                case BY_FOLDED_NAME:
+                    return foldedNameKey;
+                case BY_METHOD_NAME:
+                    return methodNameKey;
+                case BY_FOLDED_METHOD_NAME:
+                    return foldedMethodNameKey;
+                default:
+                    Debug.bug();
+                    return null;
+            }
+        }
+    }
+}
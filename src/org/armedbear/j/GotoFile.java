@@ -26,6 +26,7 @@ import gnu.regexp.REMatch;
 import gnu.regexp.UncheckedRE;
 import java.awt.AWTEvent;
 import java.awt.event.MouseEvent;
+import java.util.List;
 
 public final class GotoFile implements Constants
 {
@@ -98,6 +99,13 @@ public final class GotoFile implements Constants
             // Try source and include paths if applicable.
             if (file == null || (file.isLocal() && !file.exists()))
                 file = Utilities.findFile(editor, filename);
+
+            // Last resort: look for it anywhere in the project.
+            if (file == null || (file.isLocal() && !file.exists())) {
+                File found = findInProject(editor, filename);
+                if (found != null)
+                    file = found;
+            }
         }
 
         if (file != null) {
@@ -126,6 +134,28 @@ public final class GotoFile implements Constants
         }
     }
 
+    private static File findInProject(Editor editor, String filename)
+    {
+        final File dir = editor.getCurrentDirectory();
+        if (dir == null)
+            return null;
+        final File root = ProjectFileIndex.getProjectDirectory(dir);
+        if (root == null)
+            return null;
+        editor.setWaitCursor();
+        List files = ProjectFileIndex.getIndex(root).find(filename, 2000);
+        editor.setDefaultCursor();
+        if (files == null) {
+            editor.status("Still indexing " + root.canonicalPath());
+            return null;
+        }
+        if (files.size() == 0)
+            return null;
+        if (files.size() > 1)
+            editor.status(files.size() + " files match " + filename);
+        return (File) files.get(0);
+    }
+
     private static String gotoFileGetFileName(Editor editor)
     {
         if (editor.getDot() == null)
@@ -23,6 +23,9 @@ package org.armedbear.j;
 
 import java.util.ArrayList;
 
+// The fold state of a buffer: the line numbers of its hidden lines and how
+// many times each of them is hidden. Only the hidden lines are visited, so
+// this is cheap for a large buffer with a few folds.
 public final class HiddenLines
 {
     private final Buffer buffer;
@@ -31,60 +34,50 @@ public final class HiddenLines
     public HiddenLines(Editor editor)
     {
         buffer = editor.getBuffer();
+        if (buffer.needsRenumbering())
+            buffer.renumber();
         list = new ArrayList();
-        int count = 0;
-        int hidden = -1;
-        for (Line line = buffer.getFirstLine(); line != null; line = line.next()) {
-            if (hidden == line.getHidden()) {
-                ++count;
-            } else {
-                if (count > 0)
-                    addEntry(hidden, count);
-                hidden = line.getHidden();
-                count = 1;
-            }
-        }
-        if (count > 0)
-            addEntry(hidden, count);
+        for (int n = buffer.findHiddenLine(0); n >= 0; n = buffer.findHiddenLine(n + 1))
+            list.add(new HiddenLinesEntry(n, buffer.getLine(n).getHidden()));
     }
 
     public void restore()
     {
-        Line line = buffer.getFirstLine();
+        if (buffer.needsRenumbering())
+            buffer.renumber();
+        ArrayList hidden = new ArrayList();
+        for (int n = buffer.findHiddenLine(0); n >= 0; n = buffer.findHiddenLine(n + 1))
+            hidden.add(buffer.getLine(n));
+        for (int i = 0; i < hidden.size(); i++)
+            ((Line)hidden.get(i)).show();
         for (int i = 0; i < list.size(); i++) {
             HiddenLinesEntry entry = (HiddenLinesEntry) list.get(i);
-            for (int j = 0; j < entry.getCount(); j++) {
+            Line line = buffer.getLine(entry.getLineNumber());
+            if (line != null)
                 line.setHidden(entry.getHidden());
-                line = line.next();
-            }
         }
         buffer.renumber();
     }
 
-    private final void addEntry(int hidden, int count)
-    {
-        list.add(new HiddenLinesEntry(hidden, count));
-    }
-
     private static final class HiddenLinesEntry
     {
+        private final int lineNumber;
         private final int hidden;
-        private final int count;
 
-        private HiddenLinesEntry(int hidden, int count)
+        private HiddenLinesEntry(int lineNumber, int hidden)
         {
+            this.lineNumber = lineNumber;
             this.hidden = hidden;
-            this.count = count;
         }
 
-        private final int getHidden()
+        private final int getLineNumber()
         {
-            return hidden;
+            return lineNumber;
         }
 
-        private final int getCount()
+        private final int getHidden()
         {
-            return count;
+            return hidden;
         }
     }
 }
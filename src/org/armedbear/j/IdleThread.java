@@ -21,13 +21,25 @@
 
 package org.armedbear.j;
 
+import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.Vector;
 import javax.swing.SwingUtilities;
 
+// Every half second, when the user is idle, IdleThread puts the tasks that
+// are due in a queue, highest priority first, and a small pool of worker
+// threads runs them. A slow task only ties up one worker, so it doesn't hold
+// up the others. Tasks that haven't started by the time the user does
+// something are dropped; tasks that are running can check isCancelled().
 public class IdleThread extends Thread
 {
+    private static final int WORKERS = 2;
+
     private Vector tasks = new Vector();
 
+    // Tasks waiting for a worker.
+    private final LinkedList queue = new LinkedList();
+
     private static IdleThread idleThread;
 
     private IdleThread()
@@ -50,6 +62,12 @@ public class IdleThread extends Thread
             idleThread.setPriority(Thread.MIN_PRIORITY);
             idleThread.setDaemon(true);
             idleThread.start();
+            for (int i = 1; i <= WORKERS; i++) {
+                Worker worker = idleThread.new Worker(i);
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.setDaemon(true);
+                worker.start();
+            }
         }
     }
 
@@ -74,24 +92,29 @@ public class IdleThread extends Thread
 
     private synchronized void init()
     {
+        parseBuffersTask.setName("parseBuffers");
+        parseBuffersTask.setPriority(IdleThreadTask.PRIORITY_HIGH);
+        // Buffers that don't get parsed in time will be parsed next time.
+        parseBuffersTask.setDeadline(2000);
+        autosaveTask.setName("autosave");
+        autosaveTask.setPriority(IdleThreadTask.PRIORITY_HIGH);
+        updateHorizontalScrollBarsTask.setName("updateHorizontalScrollBars");
+        updateSidebarTask.setName("updateSidebar");
+        saveStateTask.setName("saveState");
+        memoryPressureTask.setPriority(IdleThreadTask.PRIORITY_LOW);
+        tagCurrentDirectoryTask.setPriority(IdleThreadTask.PRIORITY_LOW);
         addTask(parseBuffersTask);
         addTask(updateHorizontalScrollBarsTask);
         addTask(updateSidebarTask);
-        addTask(gcTask);
+        addTask(memoryPressureTask);
         addTask(autosaveTask);
         addTask(saveStateTask);
         addTask(tagCurrentDirectoryTask);
+        addTask(changeMarksTask);
         if (Editor.isDebugEnabled())
             addListThreadsTask();
     }
 
-    private synchronized IdleThreadTask getTask(int index)
-    {
-        if (index < 0 || index >= tasks.size())
-            return null;
-        return (IdleThreadTask) tasks.get(index);
-    }
-
     private synchronized void addTask(IdleThreadTask task)
     {
         tasks.add(task);
@@ -109,6 +132,14 @@ public class IdleThread extends Thread
     private synchronized void removeTask(IdleThreadTask task)
     {
         tasks.remove(task);
+        task.cancel();
+    }
+
+    private synchronized IdleThreadTask[] getTasks()
+    {
+        IdleThreadTask[] array = new IdleThreadTask[tasks.size()];
+        tasks.copyInto(array);
+        return array;
     }
 
     public void run()
@@ -120,16 +151,92 @@ public class IdleThread extends Thread
             catch (InterruptedException e) {}
             final long lastEventMillis = Dispatcher.getLastEventMillis();
             final long idle = System.currentTimeMillis() - lastEventMillis;
-            if (idle > 500) {
-                int i = 0;
-                IdleThreadTask task;
-                while ((task = getTask(i++)) != null) {
-                    if (task.getIdle() == 0)
-                        ;
-                    else if (idle > task.getIdle())
-                        task.run();
-                    if (Dispatcher.getLastEventMillis() != lastEventMillis)
-                        break; // User has done something.
+            if (idle > 500)
+                schedule(idle, lastEventMillis);
+        }
+    }
+
+    private void schedule(long idle, long lastEventMillis)
+    {
+        IdleThreadTask[] array = getTasks();
+        synchronized (queue) {
+            for (int i = 0; i < array.length; i++) {
+                IdleThreadTask task = array[i];
+                if (task.getIdle() == 0 || idle <= task.getIdle())
+                    continue;
+                if (task.isScheduled())
+                    continue; // Queued or running.
+                task.scheduled(lastEventMillis);
+                // Keep the queue in order of priority. Tasks with the same
+                // priority run in the order they were added.
+                final int priority = task.getPriority();
+                ListIterator it = queue.listIterator();
+                while (it.hasNext()) {
+                    IdleThreadTask t = (IdleThreadTask) it.next();
+                    if (t.getPriority() < priority) {
+                        it.previous();
+                        break;
+                    }
+                }
+                it.add(task);
+            }
+            queue.notifyAll();
+        }
+    }
+
+    private IdleThreadTask nextTask() throws InterruptedException
+    {
+        synchronized (queue) {
+            while (queue.isEmpty())
+                queue.wait();
+            return (IdleThreadTask) queue.removeFirst();
+        }
+    }
+
+    // Logs the run count and timings of each task.
+    public synchronized void logStatistics()
+    {
+        Log.debug("----- IdleThread statistics -----");
+        for (int i = 0; i < tasks.size(); i++)
+            Log.debug(((IdleThreadTask) tasks.get(i)).getStatistics());
+    }
+
+    private class Worker extends Thread
+    {
+        Worker(int n)
+        {
+            super("idle worker " + n);
+        }
+
+        public void run()
+        {
+            while (true) {
+                final IdleThreadTask task;
+                try {
+                    task = nextTask();
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+                if (task.isCancelled() ||
+                    Dispatcher.getLastEventMillis() != task.getEventMillis()) {
+                    // Task was removed, or user has done something.
+                    task.unscheduled();
+                    continue;
+                }
+                task.started();
+                try {
+                    task.run();
+                }
+                catch (Throwable t) {
+                    Log.error(t);
+                }
+                finally {
+                    final long elapsed = task.finished();
+                    final long deadline = task.getDeadline();
+                    if (deadline > 0 && elapsed > deadline)
+                        Log.debug("IdleThread " + task.getName() + " took " +
+                            elapsed + " ms");
                 }
             }
         }
@@ -151,6 +258,8 @@ public class IdleThread extends Thread
         {
             synchronized (Editor.getBufferList()) {
                 for (BufferIterator iter = new BufferIterator(); iter.hasNext();) {
+                    if (parseBuffersTask.isCancelled())
+                        return;
                     Buffer buf = iter.nextBuffer();
                     if (!buf.needsParsing())
                         continue;
@@ -230,7 +339,9 @@ public class IdleThread extends Thread
     private IdleThreadTask saveStateTask =
         new IdleThreadTask(saveStateRunnable, 5000, true);
 
-    private IdleThreadTask gcTask = new GarbageCollectionTask();
+    private IdleThreadTask memoryPressureTask = new MemoryPressureTask();
+
+    private IdleThreadTask changeMarksTask = new ChangeMarksTask();
 
     private IdleThreadTask tagCurrentDirectoryTask =
         new TagCurrentDirectoryTask();
@@ -249,11 +360,16 @@ public class IdleThread extends Thread
                     long millis = minutes * 60000;
                     if (System.currentTimeMillis() - lastRun > millis) {
                         Debug.listThreads();
+                        logStatistics();
                         lastRun = System.currentTimeMillis();
                     }
                 }
             }
         };
-        addTask(new IdleThreadTask(listThreadsRunnable, 10000, true));
+        IdleThreadTask listThreadsTask =
+            new IdleThreadTask(listThreadsRunnable, 10000, true);
+        listThreadsTask.setName("listThreads");
+        listThreadsTask.setPriority(IdleThreadTask.PRIORITY_LOW);
+        addTask(listThreadsTask);
     }
 }
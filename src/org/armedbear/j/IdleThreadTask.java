@@ -25,9 +25,26 @@ import javax.swing.SwingUtilities;
 
 public class IdleThreadTask implements Runnable
 {
+    public static final int PRIORITY_LOW    = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH   = 2;
+
     private Runnable runnable;
     private boolean invokeLater;
     private long idle;
+    private int priority = PRIORITY_NORMAL;
+    private long deadline;
+    private String name;
+
+    // Maintained by IdleThread.
+    private boolean scheduled;
+    private long eventMillis;
+    private long startMillis;
+    private boolean cancelled;
+
+    private int runCount;
+    private long totalMillis;
+    private long maxMillis;
 
     public IdleThreadTask()
     {
@@ -60,6 +77,117 @@ public class IdleThreadTask implements Runnable
         invokeLater = b;
     }
 
+    public synchronized final int getPriority()
+    {
+        return priority;
+    }
+
+    public synchronized final void setPriority(int priority)
+    {
+        this.priority = priority;
+    }
+
+    // Number of milliseconds the task may run before isCancelled() returns
+    // true, or 0 for no limit.
+    public synchronized final long getDeadline()
+    {
+        return deadline;
+    }
+
+    public synchronized final void setDeadline(long deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    public synchronized final String getName()
+    {
+        if (name != null)
+            return name;
+        String className = getClass().getName();
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    public synchronized final void setName(String name)
+    {
+        this.name = name;
+    }
+
+    // A task that takes a while should call this from time to time, and stop
+    // if it returns true: the user has done something since the task was
+    // started, or the task has run past its deadline, or it was cancelled.
+    public synchronized final boolean isCancelled()
+    {
+        if (cancelled)
+            return true;
+        if (startMillis == 0)
+            return false; // Not run by IdleThread.
+        if (Dispatcher.getLastEventMillis() != eventMillis)
+            return true;
+        return deadline > 0 &&
+            System.currentTimeMillis() - startMillis > deadline;
+    }
+
+    public synchronized final void cancel()
+    {
+        cancelled = true;
+    }
+
+    synchronized final boolean isScheduled()
+    {
+        return scheduled;
+    }
+
+    // Called when the task is put in IdleThread's queue. eventMillis is the
+    // time of the last user event when the task was scheduled.
+    synchronized final void scheduled(long eventMillis)
+    {
+        scheduled = true;
+        this.eventMillis = eventMillis;
+        cancelled = false;
+    }
+
+    // Called when the task is taken off the queue without being run.
+    synchronized final void unscheduled()
+    {
+        scheduled = false;
+    }
+
+    synchronized final long getEventMillis()
+    {
+        return eventMillis;
+    }
+
+    synchronized final void started()
+    {
+        startMillis = System.currentTimeMillis();
+    }
+
+    // Returns the number of milliseconds the task ran for.
+    synchronized final long finished()
+    {
+        final long elapsed = System.currentTimeMillis() - startMillis;
+        ++runCount;
+        totalMillis += elapsed;
+        if (elapsed > maxMillis)
+            maxMillis = elapsed;
+        startMillis = 0;
+        scheduled = false;
+        return elapsed;
+    }
+
+    public synchronized String getStatistics()
+    {
+        FastStringBuffer sb = new FastStringBuffer(getName());
+        sb.append(" runs: ");
+        sb.append(runCount);
+        sb.append(" total: ");
+        sb.append(totalMillis);
+        sb.append(" ms max: ");
+        sb.append(maxMillis);
+        sb.append(" ms");
+        return sb.toString();
+    }
+
     public final void run()
     {
         if (runnable != null) {
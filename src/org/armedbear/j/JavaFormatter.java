@@ -285,7 +285,8 @@ public final class JavaFormatter extends Formatter implements Constants
     public boolean parseBuffer()
     {
         int state = STATE_NEUTRAL;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         boolean changed = false;
         while (line != null) {
             int oldflags = line.flags();
@@ -293,6 +294,8 @@ public final class JavaFormatter extends Formatter implements Constants
             if (state == STATE_QUOTE && language == LANGUAGE_JAVA)
                 state = STATE_NEUTRAL;
 
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
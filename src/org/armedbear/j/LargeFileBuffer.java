@@ -0,0 +1,254 @@
+/*
+ * LargeFileBuffer.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+// A buffer for a local file too large to be loaded in the usual way (see the
+// largeFileThreshold preference).
+//
+// The file is mapped into memory and each line of the buffer is a MappedLine
+// that only knows where its text is in the file; the text is decoded when the
+// display, the formatter or a search asks for it. Lines that are edited keep
+// their own text from then on, and lines that are inserted are ordinary
+// TextLines, so the buffer can still be changed and saved. If the file grows
+// (as log files do), reloading it just appends the new lines.
+public final class LargeFileBuffer extends Buffer
+{
+    private MappedFile mappedFile;
+
+    public LargeFileBuffer(File file)
+    {
+        super(file);
+    }
+
+    // Returns true if file should be loaded into a LargeFileBuffer.
+    public static boolean isLargeFile(File file)
+    {
+        // On Windows a mapped file can't be replaced until the mapping is
+        // garbage collected.
+        if (Platform.isPlatformWindows())
+            return false;
+        if (file == null || !file.isLocal() || !file.isFile())
+            return false;
+        return isLargeFileSize(file.length());
+    }
+
+    // Returns true if length (in bytes) is at least the largeFileThreshold
+    // preference. Also used to keep whole-buffer work like word indexing
+    // away from buffers this size, however they were loaded.
+    public static boolean isLargeFileSize(long length)
+    {
+        final int threshold =
+            Editor.preferences().getIntegerProperty(Property.LARGE_FILE_THRESHOLD);
+        if (threshold <= 0)
+            return false;
+        return length >= threshold * 0x100000L;
+    }
+
+    protected void loadFile(File toBeLoaded)
+    {
+        final int modeId = getModeId();
+        if (modeId == BINARY_MODE || modeId == ARCHIVE_MODE ||
+            modeId == WORD_MODE || modeId == XML_MODE ||
+            !loadMapped(toBeLoaded)) {
+            super.loadFile(toBeLoaded);
+            return;
+        }
+        if (toBeLoaded.getEncoding() != null)
+            saveProperties(); // Remember encoding for next time.
+        setLastModified(toBeLoaded.lastModified());
+        renumberOriginal();
+    }
+
+    private boolean loadMapped(File toBeLoaded)
+    {
+        String encoding = toBeLoaded.getEncoding();
+        if (encoding == null) {
+            encoding =
+                Editor.preferences().getStringProperty(Property.DEFAULT_ENCODING);
+        }
+        if (!Charset.isSupported(encoding))
+            return false;
+        MappedFile mf = map(toBeLoaded, encoding);
+        if (mf == null)
+            return false;
+        mf.scan(0, new Appender(mf));
+        if (mf.getLineSeparator() != null)
+            lineSeparator = mf.getLineSeparator();
+        setLoadEncoding(mf.getEncoding());
+        mappedFile = mf;
+        setLoaded(true);
+        return true;
+    }
+
+    private static MappedFile map(File file, String encoding)
+    {
+        try {
+            RandomAccessFile raf = file.getRandomAccessFile("r");
+            try {
+                // The mapping remains valid after the file is closed.
+                FileChannel channel = raf.getChannel();
+                return new MappedFile(channel, channel.size(), encoding);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    public void empty()
+    {
+        super.empty();
+        mappedFile = null;
+    }
+
+    // Saving replaces the file, so the text at the end of the old mapping says
+    // nothing about what's at that offset in the new one. The lines that
+    // haven't changed still refer to the old mapping, which stays valid, but
+    // the next reload has to be a full one.
+    public void saved()
+    {
+        super.saved();
+        mappedFile = null;
+    }
+
+    // Unchanged lines still refer to the mapped file, so it must not be
+    // overwritten in place.
+    protected boolean canSaveInPlace()
+    {
+        return false;
+    }
+
+    public void reload()
+    {
+        if (!isModified() && appendNewLines()) {
+            for (EditorIterator it = new EditorIterator(); it.hasNext();) {
+                Editor ed = it.nextEditor();
+                if (ed.getBuffer() == this) {
+                    ed.setUpdateFlag(REPAINT);
+                    ed.updateDisplay();
+                }
+            }
+            return;
+        }
+        super.reload();
+    }
+
+    // If the file has grown since it was mapped and the text that was already
+    // there ended with a line separator, appends the new lines to the buffer
+    // and returns true. Returns false if the whole file needs to be reloaded.
+    private boolean appendNewLines()
+    {
+        final File file = getFile();
+        if (mappedFile == null || mappedFile.isUnicode() || file == null ||
+            !file.isLocal() || file.length() <= mappedFile.size())
+            return false;
+        final Line last = getLastLine();
+        if (!(last instanceof MappedLine))
+            return false;
+        final MappedLine lastLine = (MappedLine) last;
+        if (!lastLine.isMapped() || lastLine.getStart() != mappedFile.size())
+            return false;
+        MappedFile mf = map(file, mappedFile.getEncoding());
+        if (mf == null)
+            return false;
+        byte[] bytes = new byte[1];
+        mf.read(mappedFile.size() - 1, bytes, 0, 1);
+        if (bytes[0] != 10)
+            return false;
+        try {
+            lockWrite();
+        }
+        catch (InterruptedException e) {
+            Log.error(e);
+            return false;
+        }
+        try {
+            // Replace the empty line at the end of the buffer with the new
+            // lines.
+            final Line before = lastLine.previous();
+            if (before == null)
+                return false;
+            final int lineNumber = lastLine.lineNumber();
+            before.setNext(null);
+            setLastLine(before);
+            mf.scan(mappedFile.size(), new Appender(mf));
+            mappedFile = mf;
+            renumberOriginal();
+            linesAppended(lineNumber);
+            setLastModified(file.lastModified());
+        }
+        finally {
+            unlockWrite();
+        }
+        // The old last line is no longer in the buffer.
+        for (EditorIterator it = new EditorIterator(); it.hasNext();) {
+            Editor ed = it.nextEditor();
+            if (ed.getBuffer() == this) {
+                if (ed.getTopLine() == lastLine)
+                    ed.setTopLine(getLastLine());
+                Position mark = ed.getMark();
+                if (mark != null && mark.getLine() == lastLine)
+                    ed.setMark(null);
+                if (ed.getDotLine() == lastLine) {
+                    // Follow the end of the file.
+                    ed.eob();
+                    ed.getDisplay().setReframe(-2);
+                }
+            } else {
+                View view = ed.getView(this);
+                if (view != null) {
+                    Position dot = view.getDot();
+                    if (dot != null && dot.getLine() == lastLine) {
+                        Position end = getEnd();
+                        view.setDot(end);
+                        view.setCaretCol(getCol(end));
+                        view.setMark(null);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private class Appender implements MappedFile.LineHandler
+    {
+        private final MappedFile mf;
+
+        Appender(MappedFile mf)
+        {
+            this.mf = mf;
+        }
+
+        public void addLine(long start, long end)
+        {
+            appendLine(new MappedLine(mf, start, (int) (end - start)));
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * LineIndex.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+// Random access index over a buffer's chain of lines.
+//
+// The index is a snapshot of the chain taken when the buffer is renumbered,
+// so it is only meaningful while the buffer's line numbers are valid. Since
+// the lines before the first change in the chain keep their place in the
+// index, renumber() only needs to visit the lines from that point on. The
+// cumulative character offsets and the table of original line numbers are
+// computed on demand; the offsets are discarded by invalidateOffsets()
+// whenever the text of the buffer changes.
+//
+// The visible lines are counted in a Fenwick tree, so that converting between
+// line numbers and visible line numbers (and so y coordinates) takes
+// logarithmic time when some of the lines are hidden.
+//
+// The index also keeps the width in columns of each line, in a segment tree
+// whose root is the width of the widest line. A line's width is carried along
+// when renumber() moves the line, so only the lines that have been changed
+// (or added) have to be measured again.
+public final class LineIndex
+{
+    private Line[] lines = new Line[0];
+    private int size;
+    private boolean valid;
+
+    // shown[i] is 1 if line i is visible, otherwise 0.
+    private byte[] shown = new byte[0];
+
+    // Fenwick tree over shown: tree[i] is the sum of shown[j] for
+    // i - (i & -i) <= j < i.
+    private int[] tree = new int[1];
+
+    private int visibleCount;
+
+    // widths[i] is the width in columns of line i, or -1 if it needs to be
+    // measured.
+    private int[] widths = new int[0];
+
+    // Segment tree over widths. Node i (for 0 < i < lines.length) has
+    // children 2 * i and 2 * i + 1; the leaf for line i is lines.length + i.
+    // maxWidths[i] is the largest width below node i, and unknownWidths[i] is
+    // the number of widths below node i that need to be measured.
+    private int[] maxWidths = new int[0];
+    private int[] unknownWidths = new int[0];
+
+    // The tab width the widths were measured with, or 0 if they all need to
+    // be measured.
+    private int tabWidth;
+
+    // Value of AbstractLine.getHiddenModCount() when the index was built.
+    private int hiddenModCount;
+
+    // offsets[i] is the absolute offset of the start of line i; the line
+    // separator always counts as 1. offsets[size] is one past the end of the
+    // last line.
+    private int[] offsets;
+
+    // Lines having an original line number, in chain order.
+    private Line[] originals;
+    private int originalsSize;
+
+    public synchronized boolean isValid()
+    {
+        return valid;
+    }
+
+    public synchronized void invalidate()
+    {
+        valid = false;
+        tabWidth = 0;
+        offsets = null;
+        originals = null;
+    }
+
+    public synchronized void invalidateOffsets()
+    {
+        offsets = null;
+    }
+
+    public synchronized int size()
+    {
+        return valid ? size : 0;
+    }
+
+    // Returns true if the index is valid and no line anywhere has been hidden
+    // or shown since it was built, so the visible line counts of the lines
+    // before a change can be reused by renumber().
+    public synchronized boolean canRenumberFrom(int lineNumber)
+    {
+        return valid && lineNumber > 0 && lineNumber <= size &&
+            hiddenModCount == AbstractLine.getHiddenModCount();
+    }
+
+    // Assigns line numbers to the lines following the first lineNumber lines
+    // of the index, which must be unchanged since the index was last built,
+    // and updates the index accordingly. Renumbers the whole chain if
+    // lineNumber is 0.
+    public synchronized void renumber(Line firstLine, int lineNumber)
+    {
+        Line line;
+        int count;
+        if (lineNumber > 0 && canRenumberFrom(lineNumber)) {
+            line = lines[lineNumber - 1].next();
+            count = lineNumber;
+        } else {
+            line = firstLine;
+            count = 0;
+        }
+        final int unchanged = count;
+        final int oldSize = size;
+        final int oldCapacity = lines.length;
+        // The lines from unchanged on, and their widths, as they were before.
+        Line[] oldLines = null;
+        int[] oldWidths = null;
+        if (tabWidth != 0 && unchanged < oldSize) {
+            oldLines = new Line[oldSize - unchanged];
+            System.arraycopy(lines, unchanged, oldLines, 0, oldLines.length);
+            oldWidths = new int[oldSize - unchanged];
+            System.arraycopy(widths, unchanged, oldWidths, 0, oldWidths.length);
+        }
+        hiddenModCount = AbstractLine.getHiddenModCount();
+        for (; line != null; line = line.next()) {
+            if (count == lines.length)
+                grow(count + 1);
+            int width = -1;
+            if (oldLines != null) {
+                final int old = line.lineNumber() - unchanged;
+                if (old >= 0 && old < oldLines.length && oldLines[old] == line)
+                    width = oldWidths[old];
+            }
+            widths[count] = width;
+            line.setLineNumber(count);
+            shown[count] = line.isHidden() ? (byte) 0 : (byte) 1;
+            lines[count++] = line;
+        }
+        for (int i = count; i < size; i++) {
+            lines[i] = null;
+            widths[i] = 0;
+        }
+        size = count;
+        buildTree(unchanged);
+        if (tabWidth != 0) {
+            if (lines.length != oldCapacity)
+                buildWidthTree(0, lines.length);
+            else
+                buildWidthTree(unchanged, Math.max(size, oldSize));
+        }
+        offsets = null;
+        originals = null;
+        valid = true;
+    }
+
+    // Rebuilds the nodes of the tree that cover any of the lines from
+    // unchanged on. The other nodes are still correct. Of those, the only
+    // ones whose parents need rebuilding are the nodes a prefix sum of
+    // unchanged visits, so this takes time in proportion to the number of
+    // lines after unchanged, plus log n.
+    private void buildTree(int unchanged)
+    {
+        final int[] t = tree;
+        for (int i = unchanged + 1; i <= size; i++)
+            t[i] = shown[i - 1];
+        for (int i = unchanged; i > 0; i -= i & -i) {
+            final int parent = i + (i & -i);
+            if (parent <= size)
+                t[parent] += t[i];
+        }
+        for (int i = unchanged + 1; i <= size; i++) {
+            final int parent = i + (i & -i);
+            if (parent <= size)
+                t[parent] += t[i];
+        }
+        visibleCount = prefix(size);
+    }
+
+    // Returns the number of visible lines among the first n lines.
+    private int prefix(int n)
+    {
+        int sum = 0;
+        for (int i = n; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    // Returns the largest power of 2 that is not greater than size.
+    private int getHighestBit()
+    {
+        int bit = 1;
+        while (bit <= size >> 1)
+            bit <<= 1;
+        return bit;
+    }
+
+    public synchronized int getVisibleLineCount()
+    {
+        return valid ? visibleCount : 0;
+    }
+
+    // Returns the number of visible lines before the line at index
+    // lineNumber, or -1 if the index is not valid.
+    public synchronized int getVisibleLineNumber(int lineNumber)
+    {
+        if (!valid || lineNumber < 0 || lineNumber > size)
+            return -1;
+        return prefix(lineNumber);
+    }
+
+    // Returns the visible line whose visible line number (counting from 0)
+    // is n, or null if there is no such line or the index is not valid.
+    public synchronized Line getVisibleLine(int n)
+    {
+        if (!valid || n < 0 || n >= visibleCount)
+            return null;
+        // Find the largest index whose prefix count is <= n.
+        int index = 0;
+        int remaining = n;
+        for (int bit = getHighestBit(); bit > 0; bit >>= 1) {
+            final int next = index + bit;
+            if (next <= size && tree[next] <= remaining) {
+                index = next;
+                remaining -= tree[next];
+            }
+        }
+        // The line we want is the next visible one, which is at index.
+        return lines[index];
+    }
+
+    // Returns the index of the first hidden line at or after lineNumber, or
+    // -1 if there is no such line or the index is not valid.
+    public synchronized int findHiddenLine(int lineNumber)
+    {
+        if (!valid || lineNumber < 0 || lineNumber >= size)
+            return -1;
+        // The number of hidden lines before lineNumber.
+        final int n = lineNumber - prefix(lineNumber);
+        if (n >= size - visibleCount)
+            return -1;
+        // Find the largest index with no more than n hidden lines before it.
+        int index = 0;
+        int remaining = n;
+        for (int bit = getHighestBit(); bit > 0; bit >>= 1) {
+            final int next = index + bit;
+            // A node covers bit lines, since index is a multiple of 2 * bit.
+            if (next <= size && bit - tree[next] <= remaining) {
+                index = next;
+                remaining -= bit - tree[next];
+            }
+        }
+        return index;
+    }
+
+    private void grow(int minimum)
+    {
+        // The capacity is always a power of 2, which the segment tree relies
+        // on.
+        int capacity = lines.length > 0 ? lines.length * 2 : 16;
+        while (capacity < minimum)
+            capacity *= 2;
+        Line[] newLines = new Line[capacity];
+        System.arraycopy(lines, 0, newLines, 0, lines.length);
+        lines = newLines;
+        byte[] newShown = new byte[capacity];
+        System.arraycopy(shown, 0, newShown, 0, shown.length);
+        shown = newShown;
+        int[] newTree = new int[capacity + 1];
+        System.arraycopy(tree, 0, newTree, 0, tree.length);
+        tree = newTree;
+        int[] newWidths = new int[capacity];
+        System.arraycopy(widths, 0, newWidths, 0, widths.length);
+        widths = newWidths;
+        // The layout of the segment tree depends on the capacity, so it will
+        // be rebuilt.
+        maxWidths = new int[capacity * 2];
+        unknownWidths = new int[capacity * 2];
+    }
+
+    // Marks the widths of lines first through last as needing to be
+    // measured again.
+    public synchronized void invalidateWidths(int first, int last)
+    {
+        if (tabWidth == 0)
+            return;
+        if (!valid || first <= 0 && last >= size - 1) {
+            tabWidth = 0;
+            return;
+        }
+        if (first < 0)
+            first = 0;
+        if (last > size - 1)
+            last = size - 1;
+        final int capacity = lines.length;
+        for (int i = first; i <= last; i++) {
+            if (widths[i] >= 0) {
+                widths[i] = -1;
+                for (int node = (capacity + i) >> 1; node > 0; node >>= 1)
+                    ++unknownWidths[node];
+                unknownWidths[capacity + i] = 1;
+            }
+        }
+    }
+
+    // Returns the width in columns of the widest line, expanding tabs to the
+    // given tab width, or -1 if the index is not valid.
+    public synchronized int getMaximumWidth(int tabWidth)
+    {
+        if (!valid)
+            return -1;
+        if (size == 0)
+            return 0;
+        final int capacity = lines.length;
+        if (tabWidth != this.tabWidth) {
+            for (int i = 0; i < size; i++)
+                widths[i] = getWidth(lines[i], tabWidth);
+            for (int i = size; i < capacity; i++)
+                widths[i] = 0;
+            this.tabWidth = tabWidth;
+            buildWidthTree(0, capacity);
+        } else if (unknownWidths[1] > 0) {
+            measure(1, tabWidth);
+        }
+        return maxWidths[1];
+    }
+
+    // Measures the lines below node whose widths aren't known, and updates
+    // the tree.
+    private void measure(int node, int tabWidth)
+    {
+        final int capacity = lines.length;
+        if (node >= capacity) {
+            final int i = node - capacity;
+            final int width = getWidth(lines[i], tabWidth);
+            widths[i] = width;
+            maxWidths[node] = width;
+            unknownWidths[node] = 0;
+            return;
+        }
+        final int left = node << 1;
+        final int right = left + 1;
+        if (unknownWidths[left] > 0)
+            measure(left, tabWidth);
+        if (unknownWidths[right] > 0)
+            measure(right, tabWidth);
+        maxWidths[node] = Math.max(maxWidths[left], maxWidths[right]);
+        unknownWidths[node] = 0;
+    }
+
+    // Returns the width in columns of line. The width of a line of a large
+    // file that hasn't been changed is estimated from its size instead, so
+    // that the file doesn't have to be decoded; tabs are not expanded.
+    static int getWidth(Line line, int tabWidth)
+    {
+        if (line instanceof MappedLine) {
+            final MappedLine mappedLine = (MappedLine) line;
+            if (mappedLine.isMapped())
+                return mappedLine.getMaximumLength();
+        }
+        return Buffer.getCol(line, line.length(), tabWidth);
+    }
+
+    // Rebuilds the leaves of the segment tree for lines begin (inclusive)
+    // through end (exclusive), and the nodes above them.
+    private void buildWidthTree(int begin, int end)
+    {
+        final int capacity = lines.length;
+        if (capacity < 2 || begin >= end)
+            return;
+        for (int i = begin; i < end; i++) {
+            final int width = widths[i];
+            maxWidths[capacity + i] = width;
+            unknownWidths[capacity + i] = width < 0 ? 1 : 0;
+        }
+        int low = (capacity + begin) >> 1;
+        int high = (capacity + end - 1) >> 1;
+        while (high > 0) {
+            if (low < 1)
+                low = 1;
+            for (int node = low; node <= high; node++) {
+                final int left = node << 1;
+                final int right = left + 1;
+                maxWidths[node] = Math.max(maxWidths[left], maxWidths[right]);
+                unknownWidths[node] = unknownWidths[left] + unknownWidths[right];
+            }
+            low >>= 1;
+            high >>= 1;
+        }
+    }
+
+    // Returns null if the index is not valid or lineNumber is out of range.
+    public synchronized Line getLine(int lineNumber)
+    {
+        if (!valid || lineNumber < 0 || lineNumber >= size)
+            return null;
+        return lines[lineNumber];
+    }
+
+    // Returns true if line is at index lineNumber.
+    public synchronized boolean contains(Line line, int lineNumber)
+    {
+        if (!valid || lineNumber < 0 || lineNumber >= size)
+            return false;
+        return lines[lineNumber] == line;
+    }
+
+    // Returns the absolute offset of the start of line, or -1 if the line is
+    // not in the index.
+    public synchronized int getStartOffset(Line line)
+    {
+        final int lineNumber = line.lineNumber();
+        if (!contains(line, lineNumber))
+            return -1;
+        if (offsets == null)
+            computeOffsets();
+        return offsets[lineNumber];
+    }
+
+    // Returns the absolute offset of the start of the line at index
+    // lineNumber, or -1 if the index is not valid.
+    public synchronized int getStartOffset(int lineNumber)
+    {
+        if (!valid || lineNumber < 0 || lineNumber > size)
+            return -1;
+        if (offsets == null)
+            computeOffsets();
+        return offsets[lineNumber];
+    }
+
+    // Returns the length of the text of the buffer, with a single character
+    // for each line separator, or -1 if the index is not valid.
+    public synchronized int getTextLength()
+    {
+        if (!valid || size == 0)
+            return -1;
+        if (offsets == null)
+            computeOffsets();
+        return offsets[size] - 1;
+    }
+
+    // Returns the index of the line containing the absolute offset goal
+    // (counting the line separator as part of the line), or -1 if goal is
+    // past the end of the buffer or the index is not valid.
+    public synchronized int findLine(int goal)
+    {
+        if (!valid || size == 0 || goal < 0)
+            return -1;
+        if (offsets == null)
+            computeOffsets();
+        // Find the last index whose start offset is <= goal.
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= goal)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low < size ? low : -1;
+    }
+
+    // Returns the position corresponding to the absolute offset goal, or null
+    // if goal is past the end of the buffer or the index is not valid.
+    public synchronized Position getPosition(int goal)
+    {
+        if (!valid || size == 0 || goal < 0)
+            return null;
+        final int index = findLine(goal);
+        if (index < 0)
+            return null; // Past the end of the buffer.
+        return new Position(lines[index], goal - offsets[index]);
+    }
+
+    private void computeOffsets()
+    {
+        final int[] array = new int[size + 1];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            array[i] = offset;
+            offset += lines[i].length() + 1;
+        }
+        array[size] = offset;
+        offsets = array;
+    }
+
+    // Returns true if the lines that have an original line number appear in
+    // ascending order of original line number, which is what findOriginal()
+    // requires.
+    public synchronized boolean canFindOriginal()
+    {
+        if (!valid)
+            return false;
+        if (originals == null)
+            computeOriginals();
+        return originalsSize >= 0;
+    }
+
+    // Returns the first line (in buffer order) whose original line number is
+    // greater than or equal to lineNumber, or null if there is no such line.
+    public synchronized Line findOriginal(int lineNumber)
+    {
+        if (!canFindOriginal())
+            return null;
+        int low = 0;
+        int high = originalsSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (originals[mid].originalLineNumber() < lineNumber)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low < originalsSize ? originals[low] : null;
+    }
+
+    private void computeOriginals()
+    {
+        Line[] array = new Line[size];
+        int count = 0;
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            final Line line = lines[i];
+            final int n = line.originalLineNumber();
+            if (n >= 0) {
+                if (n <= last) {
+                    // Not in ascending order.
+                    count = -1;
+                    break;
+                }
+                array[count++] = line;
+                last = n;
+            }
+        }
+        originals = array;
+        originalsSize = count;
+    }
+}
@@ -21,12 +21,26 @@
 
 package org.armedbear.j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public final class LineSequence
 {
+    // Approximate number of bytes used by a line apart from its text.
+    private static final int LINE_OVERHEAD = 64;
+
     private Line first;
     private Line last;
     private int size;
 
+    // If the lines have been written to an UndoStore, first and last are null
+    // and the lines are at offset in the store's file.
+    private long offset = -1;
+    private int length;
+
     public LineSequence()
     {
     }
@@ -76,6 +90,106 @@ public final class LineSequence
         ++size;
     }
 
+    public final boolean isSpilled()
+    {
+        return offset >= 0;
+    }
+
+    // Only plain text lines can be written out and read back in again.
+    public boolean isSpillable()
+    {
+        if (isSpilled())
+            return false;
+        for (Line line = first; line != null; line = line.next()) {
+            if (line.getClass() != TextLine.class)
+                return false;
+            if (line == last)
+                break;
+        }
+        return true;
+    }
+
+    public long getMemorySize()
+    {
+        long total = 0;
+        for (Line line = first; line != null; line = line.next()) {
+            total += LINE_OVERHEAD + line.length() * 2;
+            String originalText = line.getOriginalText();
+            if (originalText != null)
+                total += originalText.length() * 2;
+            if (line == last)
+                break;
+        }
+        return total;
+    }
+
+    void spill(UndoStore store) throws IOException
+    {
+        Debug.assertTrue(!isSpilled());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(size);
+        int count = 0;
+        for (Line line = first; line != null && count < size; line = line.next()) {
+            out.writeInt(((TextLine) line).getBits());
+            writeString(out, line.getText());
+            writeString(out, line.getOriginalText());
+            ++count;
+        }
+        out.close();
+        byte[] array = bytes.toByteArray();
+        offset = store.write(array);
+        length = array.length;
+        first = last = null;
+    }
+
+    void load(UndoStore store) throws IOException
+    {
+        Debug.assertTrue(isSpilled());
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(store.read(offset, length)));
+        final int count = in.readInt();
+        discard();
+        for (int i = 0; i < count; i++) {
+            final int bits = in.readInt();
+            TextLine line = new TextLine(readString(in));
+            line.setOriginalText(readString(in));
+            line.setBits(bits);
+            appendLine(line);
+        }
+    }
+
+    // The lines are no longer needed.
+    void discard()
+    {
+        first = last = null;
+        size = 0;
+        offset = -1;
+        length = 0;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        final int n = in.readInt();
+        if (n < 0)
+            return null;
+        byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     public String toString()
     {
         FastStringBuffer sb = new FastStringBuffer();
@@ -276,7 +276,7 @@ public class LispShell extends Shell
     Position dot = editor.getDotCopy();
     if (dot == null)
       return;
-    if (needsRenumbering)
+    if (needsRenumbering())
       renumber();
     final Line dotLine = dot.getLine();
     final Position endOfOutput = getEndOfOutput();
@@ -318,7 +318,7 @@ public class LispShell extends Shell
         editor.newline();
         editor.getDotLine().setFlags(STATE_INPUT);
       }
-    if (needsRenumbering)
+    if (needsRenumbering())
       renumber();
     editor.moveCaretToDotCol();
     editor.getDisplay().setReframe(-2);
@@ -353,7 +353,7 @@ public class LispShell extends Shell
     Position dot = editor.getDotCopy();
     if (dot == null)
       return;
-    if (needsRenumbering)
+    if (needsRenumbering())
       renumber();
     final Position endOfOutput = getEndOfOutput();
     if (endOfOutput == null)
@@ -383,7 +383,7 @@ public class LispShell extends Shell
             editor.getDotLine().setFlags(0);
           }
       }
-    if (needsRenumbering)
+    if (needsRenumbering())
       renumber();
     editor.moveCaretToDotCol();
     editor.getDisplay().setReframe(-2);
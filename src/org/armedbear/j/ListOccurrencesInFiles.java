@@ -21,6 +21,8 @@
 
 package org.armedbear.j;
 
+import java.util.List;
+
 public final class ListOccurrencesInFiles extends ListOccurrences
 {
     private Position lastDotPos;
@@ -155,6 +157,29 @@ public final class ListOccurrencesInFiles extends ListOccurrences
         appendLine(new FileLine(file, listEachOccurrence));
     }
 
+    // Appends a batch of lines that were created without holding the lock,
+    // and renumbers once for the whole batch.
+    public final void appendLines(List lines)
+    {
+        if (lines.size() == 0)
+            return;
+        try {
+            lockWrite();
+        }
+        catch (InterruptedException e) {
+            Log.error(e);
+            return;
+        }
+        try {
+            for (int i = 0; i < lines.size(); i++)
+                appendLine((Line) lines.get(i));
+        }
+        finally {
+            renumber();
+            unlockWrite();
+        }
+    }
+
     protected String getOptions()
     {
         String s = super.getOptions();
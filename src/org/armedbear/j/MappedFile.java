@@ -0,0 +1,308 @@
+/*
+ * MappedFile.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+// A read-only memory mapping of a text file.
+//
+// Files larger than 2 GB are mapped in several segments. The file is checked
+// for a UTF-16 byte order mark when it is mapped; otherwise its text is
+// decoded using the encoding passed to the constructor.
+public final class MappedFile
+{
+    public interface LineHandler
+    {
+        // start and end are byte offsets; end is the offset of the line
+        // separator, if any.
+        void addLine(long start, long end);
+    }
+
+    private static final int SEGMENT_SIZE = 0x40000000;
+
+    // Number of bytes read from the mapping at a time while scanning.
+    private static final int BLOCK_SIZE = 0x10000;
+
+    private static final int CACHE_SIZE = 256;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final String encoding;
+    private final Charset charset;
+    private boolean isUnicode;
+    private boolean isLittleEndian;
+    private String lineSeparator;
+
+    // True if each byte of text decodes to exactly one character.
+    private final boolean isSingleByte;
+
+    // Largest number of characters a byte of text can decode to.
+    private final float maxCharsPerByte;
+
+    // Used by decode().
+    private CharsetDecoder decoder;
+    private byte[] bytes = new byte[256];
+    private final long[] cacheKeys = new long[CACHE_SIZE];
+    private final String[] cacheValues = new String[CACHE_SIZE];
+
+    // The caller is responsible for making sure that encoding is supported.
+    public MappedFile(FileChannel channel, long size, String encoding)
+        throws IOException
+    {
+        this.size = size;
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = (long) i * SEGMENT_SIZE;
+            segments[i] =
+                channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(SEGMENT_SIZE, size - position));
+        }
+        if (size >= 2) {
+            byte byte1 = segments[0].get(0);
+            byte byte2 = segments[0].get(1);
+            if (byte1 == (byte) 0xfe && byte2 == (byte) 0xff) {
+                isUnicode = true;
+                encoding = "UnicodeBig";
+            } else if (byte1 == (byte) 0xff && byte2 == (byte) 0xfe) {
+                isUnicode = true;
+                isLittleEndian = true;
+                encoding = "UnicodeLittle";
+            }
+        }
+        this.encoding = encoding;
+        charset = isUnicode ? null : Charset.forName(encoding);
+        if (charset != null) {
+            maxCharsPerByte = charset.newDecoder().maxCharsPerByte();
+            isSingleByte = maxCharsPerByte == 1 && charset.canEncode() &&
+                charset.newEncoder().maxBytesPerChar() == 1;
+        } else {
+            maxCharsPerByte = 0.5f;
+            isSingleByte = false;
+        }
+        for (int i = 0; i < CACHE_SIZE; i++)
+            cacheKeys[i] = -1;
+    }
+
+    public final long size()
+    {
+        return size;
+    }
+
+    // Returns "UnicodeBig" or "UnicodeLittle" if the file starts with a byte
+    // order mark.
+    public final String getEncoding()
+    {
+        return encoding;
+    }
+
+    public final Charset getCharset()
+    {
+        return charset;
+    }
+
+    public final boolean isUnicode()
+    {
+        return isUnicode;
+    }
+
+    public final boolean isLittleEndian()
+    {
+        return isLittleEndian;
+    }
+
+    // Offset of the first byte of text (after the byte order mark, if any).
+    public final int getTextStart()
+    {
+        return isUnicode ? 2 : 0;
+    }
+
+    // Returns the number of characters that count bytes of text decode to,
+    // or -1 if that can't be known without decoding them.
+    public final int getLength(int count)
+    {
+        if (isUnicode)
+            return count / 2;
+        if (isSingleByte)
+            return count;
+        return -1;
+    }
+
+    // Returns an upper bound on the number of characters that count bytes of
+    // text decode to.
+    public final int getMaximumLength(int count)
+    {
+        if (isUnicode)
+            return count / 2;
+        return (int) Math.ceil(count * maxCharsPerByte);
+    }
+
+    // Returns the line separator found by scan(), or null if there was none.
+    public final String getLineSeparator()
+    {
+        return lineSeparator;
+    }
+
+    // Copies count bytes starting at offset position into array. Safe to call
+    // from any thread.
+    public void read(long position, byte[] array, int offset, int count)
+    {
+        while (count > 0) {
+            final int index = (int) (position / SEGMENT_SIZE);
+            final int segmentOffset = (int) (position % SEGMENT_SIZE);
+            java.nio.ByteBuffer buf = segments[index].duplicate();
+            buf.position(segmentOffset);
+            final int n = Math.min(count, buf.remaining());
+            buf.get(array, offset, n);
+            position += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    // Finds the lines of the file from offset start (which must be the start
+    // of a line) to the end, passing each of them to handler. CR, LF and CRLF
+    // are all recognized as line separators; the first one found is
+    // remembered. If the file ends with a line separator, the last line
+    // reported is empty.
+    public void scan(long start, LineHandler handler)
+    {
+        final int unit = isUnicode ? 2 : 1;
+        if (start < getTextStart())
+            start = getTextStart();
+        // A trailing odd byte in a UTF-16 file is ignored.
+        final long limit = start + (size - start) / unit * unit;
+        final byte[] block = new byte[BLOCK_SIZE];
+        long lineStart = start;
+        long lastCR = -unit;
+        boolean skipLF = false;
+        for (long blockStart = start; blockStart < limit; blockStart += BLOCK_SIZE) {
+            final int length = (int) Math.min(BLOCK_SIZE, limit - blockStart);
+            read(blockStart, block, 0, length);
+            for (int i = 0; i < length; i += unit) {
+                final int c;
+                if (isUnicode) {
+                    if (isLittleEndian)
+                        c = (block[i + 1] << 8) + (block[i] & 0xff);
+                    else
+                        c = (block[i] << 8) + (block[i + 1] & 0xff);
+                } else
+                    c = block[i];
+                if (c != 13 && c != 10)
+                    continue;
+                final long pos = blockStart + i;
+                if (skipLF && pos > lastCR + unit) {
+                    // Something other than LF after CR.  Must be a Mac...
+                    if (lineSeparator == null)
+                        lineSeparator = "\r";
+                    skipLF = false;
+                }
+                if (c == 13) {
+                    handler.addLine(lineStart, pos);
+                    lineStart = pos + unit;
+                    lastCR = pos;
+                    skipLF = true;
+                } else if (skipLF) {
+                    // LF after CR.
+                    if (lineSeparator == null)
+                        lineSeparator = "\r\n";
+                    lineStart = pos + unit;
+                    skipLF = false;
+                } else {
+                    // LF without preceding CR.
+                    if (lineSeparator == null)
+                        lineSeparator = "\n";
+                    handler.addLine(lineStart, pos);
+                    lineStart = pos + unit;
+                }
+            }
+        }
+        if (skipLF && limit > lastCR + unit) {
+            if (lineSeparator == null)
+                lineSeparator = "\r";
+        }
+        handler.addLine(lineStart, Math.max(lineStart, limit));
+    }
+
+    // Returns the text of the count bytes starting at offset start. The most
+    // recently decoded lines are cached, since the display and the formatter
+    // tend to ask for the same line several times in a row.
+    public synchronized String decode(long start, int count)
+    {
+        if (count == 0)
+            return "";
+        final int index = (int) ((start ^ (start >>> 32)) & (CACHE_SIZE - 1));
+        if (cacheKeys[index] == start)
+            return cacheValues[index];
+        if (bytes.length < count)
+            bytes = new byte[count];
+        String s;
+        try {
+            read(start, bytes, 0, count);
+            s = isUnicode ? decodeUnicode(bytes, count) : decodeBytes(bytes, count);
+        }
+        catch (InternalError e) {
+            // The file has been truncated since it was mapped.
+            Log.error(e);
+            return "";
+        }
+        cacheKeys[index] = start;
+        cacheValues[index] = s;
+        return s;
+    }
+
+    private String decodeBytes(byte[] array, int count)
+    {
+        if (decoder == null) {
+            decoder = charset.newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+        try {
+            return decoder.decode(java.nio.ByteBuffer.wrap(array, 0, count)).toString();
+        }
+        catch (java.nio.charset.CharacterCodingException e) {
+            // Shouldn't happen, since errors are replaced.
+            Log.error(e);
+            return "";
+        }
+    }
+
+    private String decodeUnicode(byte[] array, int count)
+    {
+        final int n = count / 2;
+        char[] chars = new char[n];
+        for (int j = 0, i = 0; j < n; j++) {
+            final byte b1 = array[i++];
+            final byte b2 = array[i++];
+            if (isLittleEndian)
+                chars[j] = (char) ((b2 << 8) + (b1 & 0xff));
+            else
+                chars[j] = (char) ((b1 << 8) + (b2 & 0xff));
+        }
+        return new String(chars);
+    }
+}
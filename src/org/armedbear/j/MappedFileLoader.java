@@ -0,0 +1,289 @@
+/*
+ * MappedFileLoader.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+// Fast path for SystemBuffer.load() when the input is a local file.
+//
+// The file is mapped into memory and scanned once for line boundaries; the
+// lines are then decoded by a small pool of threads, each working on its own
+// range of lines with its own decoder. Nothing is appended to the buffer
+// here, so if anything goes wrong the caller can still fall back to reading
+// the stream.
+public final class MappedFileLoader implements MappedFile.LineHandler
+{
+    // Smaller files are not worth the trouble.
+    private static final int THRESHOLD = 0x40000;
+
+    // Approximate number of bytes of text decoded by one task.
+    private static final int CHUNK_SIZE = 0x100000;
+
+    private final FileChannel channel;
+    private final String encoding;
+
+    private MappedFile mappedFile;
+    private int size;
+
+    // Start and end (exclusive, not including the line separator) of each
+    // line, as byte offsets into the file.
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private int count;
+
+    // Index of the first line of each decoding task, plus a final entry equal
+    // to count.
+    private int[] chunks;
+    private int nextChunk;
+
+    private Line[] lines;
+    private Throwable error;
+
+    private MappedFileLoader(FileChannel channel, String encoding)
+    {
+        this.channel = channel;
+        this.encoding = encoding;
+    }
+
+    // Returns null if the stream should be read the usual way.
+    public static MappedFileLoader getLoader(FileInputStream in,
+        String encoding)
+    {
+        // On Windows a mapped file can't be overwritten until the mapping is
+        // garbage collected, which would get in the way of saving the file.
+        if (Platform.isPlatformWindows())
+            return null;
+        if (!Charset.isSupported(encoding))
+            return null;
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.position() != 0)
+                return null;
+            final long size = channel.size();
+            if (size < THRESHOLD || size > Integer.MAX_VALUE)
+                return null;
+            return new MappedFileLoader(channel, encoding);
+        }
+        catch (IOException e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    public final String getLineSeparator()
+    {
+        return mappedFile != null ? mappedFile.getLineSeparator() : null;
+    }
+
+    public final String getEncoding()
+    {
+        return mappedFile != null ? mappedFile.getEncoding() : null;
+    }
+
+    public final int getFileSize()
+    {
+        return size;
+    }
+
+    // Returns the lines of the file, or null if the file could not be loaded
+    // this way.
+    public Line[] load()
+    {
+        try {
+            size = (int) channel.size();
+            mappedFile = new MappedFile(channel, size, encoding);
+            mappedFile.scan(0, this);
+            decode(mappedFile.getCharset());
+            if (error != null) {
+                Log.error(error);
+                return null;
+            }
+            return lines;
+        }
+        catch (Exception e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    public void addLine(long start, long end)
+    {
+        if (count == starts.length) {
+            int[] newStarts = new int[count * 2];
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            starts = newStarts;
+            int[] newEnds = new int[count * 2];
+            System.arraycopy(ends, 0, newEnds, 0, count);
+            ends = newEnds;
+        }
+        starts[count] = (int) start;
+        ends[count] = (int) end;
+        ++count;
+    }
+
+    private void decode(final Charset charset) throws InterruptedException
+    {
+        lines = new Line[count];
+        // Divide the lines into chunks of roughly CHUNK_SIZE bytes.
+        int[] array = new int[size / CHUNK_SIZE + 2];
+        int numChunks = 0;
+        int chunkStart = -CHUNK_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (starts[i] - chunkStart >= CHUNK_SIZE) {
+                if (numChunks == array.length) {
+                    int[] newArray = new int[numChunks * 2];
+                    System.arraycopy(array, 0, newArray, 0, numChunks);
+                    array = newArray;
+                }
+                array[numChunks++] = i;
+                chunkStart = starts[i];
+            }
+        }
+        chunks = new int[numChunks + 1];
+        System.arraycopy(array, 0, chunks, 0, numChunks);
+        chunks[numChunks] = count;
+        int numThreads =
+            Math.min(Runtime.getRuntime().availableProcessors(), numChunks);
+        if (numThreads <= 1) {
+            new Decoder(charset).run();
+            return;
+        }
+        Thread[] threads = new Thread[numThreads - 1];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Decoder(charset), "MappedFileLoader");
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        // This thread does its share of the work too.
+        new Decoder(charset).run();
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+    }
+
+    // Returns the index of the next chunk to be decoded, or -1 if there are no
+    // more chunks (or something went wrong).
+    private synchronized int nextChunk()
+    {
+        if (error != null || nextChunk == chunks.length - 1)
+            return -1;
+        return nextChunk++;
+    }
+
+    private synchronized void setError(Throwable t)
+    {
+        if (error == null)
+            error = t;
+    }
+
+    private class Decoder implements Runnable
+    {
+        private final CharsetDecoder decoder;
+        private final boolean isLatin1;
+        private final boolean isAsciiCompatible;
+
+        Decoder(Charset charset)
+        {
+            if (charset != null) {
+                decoder = charset.newDecoder();
+                decoder.onMalformedInput(CodingErrorAction.REPLACE);
+                decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+                String name = charset.name();
+                isLatin1 = name.equals("ISO-8859-1");
+                isAsciiCompatible = isLatin1 || name.equals("US-ASCII") ||
+                    name.equals("UTF-8") || name.startsWith("windows-125");
+            } else {
+                decoder = null;
+                isLatin1 = false;
+                isAsciiCompatible = false;
+            }
+        }
+
+        public void run()
+        {
+            try {
+                int chunk;
+                while ((chunk = nextChunk()) >= 0)
+                    decodeChunk(chunks[chunk], chunks[chunk + 1]);
+            }
+            catch (Throwable t) {
+                setError(t);
+            }
+        }
+
+        private void decodeChunk(int first, int last) throws Exception
+        {
+            final int base = starts[first];
+            final int length = ends[last - 1] - base;
+            // Lines that need no decoding are left in this array, which they
+            // share.
+            final byte[] bytes = new byte[length];
+            mappedFile.read(base, bytes, 0, length);
+            for (int i = first; i < last; i++) {
+                final int offset = starts[i] - base;
+                final int len = ends[i] - starts[i];
+                if (decoder == null)
+                    lines[i] = new TextLine(decodeUnicode(bytes, offset, len));
+                else if (isLatin1 || (isAsciiCompatible && isAscii(bytes, offset, len)))
+                    lines[i] = new TextLine(bytes, offset, len);
+                else {
+                    decoder.reset();
+                    CharBuffer cb =
+                        decoder.decode(java.nio.ByteBuffer.wrap(bytes, offset, len));
+                    lines[i] = new TextLine(cb.toString());
+                }
+            }
+        }
+
+        // Plain ASCII is by far the most common case, and every charset we're
+        // likely to see decodes it the same way.
+        private boolean isAscii(byte[] bytes, int offset, int len)
+        {
+            final int end = offset + len;
+            for (int i = offset; i < end; i++) {
+                if (bytes[i] < 0)
+                    return false;
+            }
+            return true;
+        }
+
+        private String decodeUnicode(byte[] bytes, int offset, int len)
+        {
+            final int n = len / 2;
+            final boolean isLittleEndian = mappedFile.isLittleEndian();
+            char[] chars = new char[n];
+            for (int j = 0, i = offset; j < n; j++) {
+                final byte b1 = bytes[i++];
+                final byte b2 = bytes[i++];
+                if (isLittleEndian)
+                    chars[j] = (char) ((b2 << 8) + (b1 & 0xff));
+                else
+                    chars[j] = (char) ((b1 << 8) + (b2 & 0xff));
+            }
+            return new String(chars);
+        }
+    }
+}
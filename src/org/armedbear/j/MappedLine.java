@@ -0,0 +1,230 @@
+/*
+ * MappedLine.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.UnsupportedEncodingException;
+
+// A line of a LargeFileBuffer. The text of the line stays in the mapped file
+// and is decoded whenever it's needed, until the line is changed.
+public final class MappedLine extends AbstractLine implements Line
+{
+    private static final int SAVED = 0x0001;
+    private static final int NEW   = 0x0002;
+
+    private final MappedFile source;
+    private final long start;
+    private final int count;
+
+    private int flags;
+    private String text; // Null until the line is changed.
+    private String originalText;
+    private int bits;
+
+    public MappedLine(MappedFile source, long start, int count)
+    {
+        this.source = source;
+        this.start = start;
+        this.count = count;
+    }
+
+    // Offset in the file of the start of this line.
+    public final long getStart()
+    {
+        return start;
+    }
+
+    // Returns true if the text of the line still comes from the file.
+    public final boolean isMapped()
+    {
+        return text == null;
+    }
+
+    public final int flags()
+    {
+        return flags;
+    }
+
+    public final void setFlags(int flags)
+    {
+        this.flags = flags;
+    }
+
+    public final String getText()
+    {
+        return text != null ? text : source.decode(start, count);
+    }
+
+    public final void setText(String s)
+    {
+        if (text == null)
+            text = source.decode(start, count);
+        if (originalText == null)
+            originalText = text;
+        text = s != null ? s : "";
+        if (text.equals(originalText))
+            originalText = null;
+        bits &= ~SAVED;
+    }
+
+    public final String getOriginalText()
+    {
+        return originalText;
+    }
+
+    public final void setOriginalText(String s)
+    {
+        originalText = s;
+    }
+
+    public final boolean isModified()
+    {
+        return originalText != null || isNew();
+    }
+
+    public final boolean isNew()
+    {
+        return (bits & NEW) == NEW;
+    }
+
+    public final void setNew(boolean b)
+    {
+        if (b)
+            bits |= NEW;
+        else
+            bits &= ~NEW;
+    }
+
+    public final boolean isSaved()
+    {
+        return (bits & SAVED) == SAVED;
+    }
+
+    public final void setSaved(boolean b)
+    {
+        if (b)
+            bits |= SAVED;
+        else
+            bits &= ~SAVED;
+    }
+
+    public final void unmodified()
+    {
+        originalText = null;
+        bits &= (~SAVED & ~NEW);
+    }
+
+    public final char charAt(int i)
+    {
+        return getText().charAt(i);
+    }
+
+    public final String substring(int beginIndex)
+    {
+        return getText().substring(beginIndex);
+    }
+
+    public final String substring(int beginIndex, int endIndex)
+    {
+        return getText().substring(beginIndex, endIndex);
+    }
+
+    public final String trim()
+    {
+        return getText().trim();
+    }
+
+    public final int length()
+    {
+        if (text == null) {
+            // Avoid decoding the line if its length follows from its size.
+            final int length = source.getLength(count);
+            if (length >= 0)
+                return length;
+        }
+        return getText().length();
+    }
+
+    // Returns an upper bound on the length of the line, without decoding it
+    // if it hasn't been changed.
+    public final int getMaximumLength()
+    {
+        final String s = text;
+        return s != null ? s.length() : source.getMaximumLength(count);
+    }
+
+    public final int getWidth()
+    {
+        return length() * Display.getCharWidth();
+    }
+
+    public final byte[] getBytes(String encoding) throws UnsupportedEncodingException
+    {
+        if (isMapped() && !source.isUnicode() &&
+            encoding.equals(source.getEncoding())) {
+            // Unchanged, so we can just copy the bytes from the file.
+            byte[] bytes = new byte[count];
+            source.read(start, bytes, 0, count);
+            return bytes;
+        }
+        byte[] bytes = getText().getBytes(encoding);
+        if (bytes.length >= 2) {
+            if ((bytes[0] == (byte) 0xfe && bytes[1] == (byte) 0xff) ||
+                (bytes[0] == (byte) 0xff && bytes[1] == (byte) 0xfe)) {
+                // Get rid of byte order mark.
+                byte[] newBytes = new byte[bytes.length-2];
+                System.arraycopy(bytes, 2, newBytes, 0, newBytes.length);
+                return newBytes;
+            }
+        }
+        return bytes;
+    }
+
+    public final boolean isBlank()
+    {
+        String s = getText();
+
+        for (int i = s.length(); i-- > 0;)
+            if (!Character.isWhitespace(s.charAt(i)))
+                return false;
+
+        return true;
+    }
+
+    // Copies text, original text, and bit flags only. The copy is an
+    // ordinary TextLine.
+    public Line copy()
+    {
+        Line line = new TextLine(getText());
+        line.setOriginalText(originalText);
+        line.setNew(isNew());
+        line.setSaved(isSaved());
+        return line;
+    }
+
+    // Copies text, original text, and bit flags only.
+    public void copy(Line line)
+    {
+        text = line.getText();
+        originalText = line.getOriginalText();
+        setNew(line.isNew());
+        setSaved(line.isSaved());
+    }
+}
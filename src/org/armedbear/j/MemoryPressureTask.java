@@ -0,0 +1,157 @@
+/*
+ * MemoryPressureTask.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import javax.swing.SwingUtilities;
+
+// Releases caches when memory is getting short, instead of forcing a garbage
+// collection whenever the user stops typing.
+//
+// There are two signals. The sentinel is a soft reference to an object nobody
+// else uses; the collector only clears soft references when the heap is under
+// pressure, so when the sentinel has been cleared, everything we can release
+// is released. Otherwise the caches are released in order, cheapest to
+// rebuild first, as the fraction of the maximum heap in use passes each of
+// the thresholds below.
+//
+// Between collections the heap in use includes whatever garbage has piled up
+// since the last one, so it says little about how much memory the editor
+// really needs. The heap is only sampled once a collection has cleared a
+// weak reference to another unused object, which is as close to the live
+// size as we can get without forcing a collection ourselves.
+public final class MemoryPressureTask extends IdleThreadTask
+{
+    private static final int BUFFER_TEXT     = 0;
+    private static final int DISPLAY_LINES   = 1;
+    private static final int DIRECTORY_CACHE = 2;
+    private static final int TAG_FILE_CACHE  = 3;
+
+    private static final String[] names = {
+        "buffer text",
+        "display lines",
+        "directory cache",
+        "tag file cache"
+    };
+
+    // Percentage of the maximum heap size in use at which each cache is
+    // released.
+    private static final int[] thresholds = { 70, 80, 85, 90 };
+
+    // Don't release the same caches again until this much time has passed.
+    private static final long INTERVAL = 30000;
+
+    private SoftReference sentinel = new SoftReference(new Object());
+
+    // Cleared by the next collection.
+    private WeakReference collected = new WeakReference(new Object());
+
+    private int lastLevel;
+    private long lastRunMillis;
+
+    public MemoryPressureTask()
+    {
+        setIdle(1000);
+        setRunnable(runnable);
+    }
+
+    private final Runnable runnable = new Runnable() {
+        public void run()
+        {
+            final boolean cleared = sentinel.get() == null;
+            if (!cleared && collected.get() != null)
+                return; // No collection since the last sample.
+            collected = new WeakReference(new Object());
+            final Runtime rt = Runtime.getRuntime();
+            final long max = rt.maxMemory();
+            final long used = rt.totalMemory() - rt.freeMemory();
+            final int percent = (int) (used * 100 / max);
+            int level = 0;
+            while (level < thresholds.length && percent >= thresholds[level])
+                ++level;
+            if (cleared) {
+                level = thresholds.length;
+                sentinel = new SoftReference(new Object());
+            }
+            final long now = System.currentTimeMillis();
+            if (level == 0) {
+                lastLevel = 0;
+                return;
+            }
+            // The caches we released last time may not have been collected
+            // yet.
+            if (level <= lastLevel && now - lastRunMillis < INTERVAL)
+                return;
+            FastStringBuffer sb = new FastStringBuffer("MemoryPressureTask ");
+            sb.append(percent);
+            sb.append("% of ");
+            sb.append(max / 1048576);
+            sb.append(" MB used");
+            if (cleared)
+                sb.append(", soft references cleared");
+            sb.append("; releasing");
+            for (int i = 0; i < level; i++) {
+                sb.append(i == 0 ? " " : ", ");
+                sb.append(names[i]);
+                release(i);
+            }
+            Log.info(sb.toString());
+            lastLevel = level;
+            lastRunMillis = now;
+        }
+    };
+
+    private static void release(int cache)
+    {
+        switch (cache) {
+            case BUFFER_TEXT:
+                synchronized (Editor.getBufferList()) {
+                    for (BufferIterator it = new BufferIterator(); it.hasNext();)
+                        it.nextBuffer().releaseTextCache();
+                }
+                break;
+            case DISPLAY_LINES:
+                // The line cache belongs to the event dispatch thread.
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run()
+                    {
+                        for (EditorIterator it = new EditorIterator(); it.hasNext();)
+                            it.nextEditor().getDisplay().releaseLineCache();
+                    }
+                });
+                break;
+            case DIRECTORY_CACHE:
+                DirectoryCache.releaseCache();
+                FileListingCache.releaseCache();
+                ProjectFileIndex.releaseIndex();
+                break;
+            case TAG_FILE_CACHE:
+                TagFileManager tagFileManager = Editor.getTagFileManager();
+                if (tagFileManager != null)
+                    tagFileManager.releaseCache();
+                break;
+            default:
+                Debug.bug();
+                break;
+        }
+    }
+}
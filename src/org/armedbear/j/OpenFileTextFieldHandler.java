@@ -468,11 +468,16 @@ public final class OpenFileTextFieldHandler extends DefaultTextFieldHandler
             new FilenameCompletion(dir, prefix, sourcePath, ignoreCase);
         final File currentDirectory = getCurrentDirectory();
         List files = completion.listFiles();
+        if (files != null && files.size() == 0) {
+            // Nothing starts with the prefix. Offer the names that contain
+            // its characters in the same order, best first.
+            files = completion.listFuzzyMatches();
+        }
         if (files != null) {
             for (int i = 0, limit = files.size(); i < limit; i++) {
                 final File file = (File) files.get(i);
                 final String name = getNameForFile(file, currentDirectory);
-                if (file.isDirectory()) {
+                if (completion.isDirectory(file)) {
                     addCompletion(completions, name.concat(file.getSeparator()),
                                   ignoreCase);
                     continue;
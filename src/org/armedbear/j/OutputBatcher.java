@@ -0,0 +1,77 @@
+/*
+ * OutputBatcher.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+
+package org.armedbear.j;
+
+import javax.swing.SwingUtilities;
+
+// Passes the output of a process from the reader threads to the event
+// dispatch thread.
+//
+// Output that arrives while an earlier batch is still waiting to be flushed
+// is added to that batch, so however fast the process writes, there is never
+// more than one flush in the event queue, and the buffer is appended to and
+// repainted once for everything that has arrived since the last flush. If
+// the event dispatch thread falls too far behind, the reader threads wait for
+// it to catch up.
+public abstract class OutputBatcher implements Runnable
+{
+    private static final int MAX_PENDING = 0x100000;
+
+    private final FastStringBuffer pending = new FastStringBuffer();
+    private boolean scheduled;
+
+    // Called by a reader thread.
+    public void append(String s)
+    {
+        synchronized (this) {
+            while (scheduled && pending.length() >= MAX_PENDING) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+            }
+            pending.append(s);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        SwingUtilities.invokeLater(this);
+    }
+
+    public final void run()
+    {
+        final String s;
+        synchronized (this) {
+            s = pending.toString();
+            pending.setLength(0);
+            scheduled = false;
+            notifyAll();
+        }
+        flush(s);
+    }
+
+    // Called on the event dispatch thread with everything that has arrived
+    // since the last flush.
+    protected abstract void flush(String s);
+}
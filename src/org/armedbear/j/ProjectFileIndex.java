@@ -0,0 +1,186 @@
+/*
+ * ProjectFileIndex.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+// The files under a project directory, for gotoFile.
+//
+// The project directory is the nearest directory above the current one that
+// has a version control directory in it. The index is built on a thread of
+// its own; find() waits for it for a limited time only, so a large tree on a
+// slow file system doesn't freeze the editor. An index is built again when
+// it's more than a few minutes old.
+public final class ProjectFileIndex
+{
+    private static final String[] markers = { ".git", ".hg", "_darcs", ".bzr" };
+
+    private static final int MAX_FILES = 100000;
+
+    private static final long MAX_AGE = 300000; // 5 minutes
+
+    // Only the most recent project is remembered.
+    private static ProjectFileIndex instance;
+
+    private final File root;
+    private final long created;
+
+    // Canonical paths of the files in the project, once they've all been
+    // found.
+    private String[] paths;
+
+    private ProjectFileIndex(File root)
+    {
+        this.root = root;
+        created = System.currentTimeMillis();
+    }
+
+    // Returns null if dir isn't in a project.
+    public static File getProjectDirectory(File dir)
+    {
+        for (File d = dir; d != null && d.isLocal(); d = d.getParentFile()) {
+            for (int i = 0; i < markers.length; i++) {
+                File marker = File.getInstance(d, markers[i]);
+                if (marker != null && marker.isDirectory())
+                    return d;
+            }
+        }
+        return null;
+    }
+
+    public static synchronized ProjectFileIndex getIndex(File root)
+    {
+        if (instance == null || !instance.root.equals(root) ||
+            System.currentTimeMillis() - instance.created > MAX_AGE) {
+            instance = new ProjectFileIndex(root);
+            instance.start();
+        }
+        return instance;
+    }
+
+    // Called when memory is short.
+    public static synchronized void releaseIndex()
+    {
+        instance = null;
+    }
+
+    private void start()
+    {
+        Thread thread = new Thread("index " + root.canonicalPath()) {
+            public void run()
+            {
+                build();
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void build()
+    {
+        final long start = System.currentTimeMillis();
+        ArrayList list = new ArrayList();
+        HashSet visited = new HashSet();
+        LinkedList queue = new LinkedList();
+        queue.add(root);
+        while (!queue.isEmpty() && list.size() < MAX_FILES) {
+            File dir = (File) queue.removeFirst();
+            // Don't follow links in circles.
+            if (!visited.add(dir.canonicalPath()))
+                continue;
+            File[] files = dir.listFiles();
+            if (files == null)
+                continue;
+            for (int i = 0; i < files.length; i++) {
+                final File file = files[i];
+                if (file.getName().startsWith("."))
+                    continue;
+                if (file.isDirectory())
+                    queue.add(file);
+                else
+                    list.add(file.canonicalPath());
+            }
+        }
+        if (list.size() >= MAX_FILES)
+            Log.warn("ProjectFileIndex " + root.canonicalPath() +
+                " has more than " + MAX_FILES + " files");
+        synchronized (this) {
+            paths = (String[]) list.toArray(new String[list.size()]);
+            notifyAll();
+        }
+        Log.debug("ProjectFileIndex " + root.canonicalPath() + " " +
+            list.size() + " files " + (System.currentTimeMillis() - start) +
+            " ms");
+    }
+
+    public final File getRoot()
+    {
+        return root;
+    }
+
+    // Returns the files whose paths end with filename, shortest path first,
+    // or null if the index isn't ready after waiting timeout milliseconds.
+    public List find(String filename, long timeout)
+    {
+        final String[] array;
+        synchronized (this) {
+            final long deadline = System.currentTimeMillis() + timeout;
+            while (paths == null) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return null;
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            array = paths;
+        }
+        final char separatorChar = LocalFile.getSeparatorChar();
+        filename = filename.replace('/', separatorChar);
+        final boolean ignoreCase = Platform.isPlatformWindows();
+        final String suffix = separatorChar + filename;
+        ArrayList matches = new ArrayList();
+        for (int i = 0; i < array.length; i++) {
+            final String path = array[i];
+            if (path.regionMatches(ignoreCase, path.length() - suffix.length(),
+                                   suffix, 0, suffix.length()))
+                matches.add(path);
+        }
+        Collections.sort(matches, new Comparator() {
+            public int compare(Object o1, Object o2)
+            {
+                return ((String) o1).length() - ((String) o2).length();
+            }
+        });
+        for (int i = 0; i < matches.size(); i++)
+            matches.set(i, File.getInstance((String) matches.get(i)));
+        return matches;
+    }
+}
@@ -55,6 +55,8 @@ public final class Property implements Comparable, Constants
         createProperty("indentSize", 4);
     public static final Property JLIST_FIXED_CELL_HEIGHT =
         createProperty("JList.fixedCellHeight", 0);
+    public static final Property LARGE_FILE_THRESHOLD =
+        createProperty("largeFileThreshold", 64);
     public static final Property LIST_THREADS =
         createProperty("listThreads", 0);
     public static final Property LOG_MAX_BACKUP_INDEX =
@@ -77,6 +79,8 @@ public final class Property implements Comparable, Constants
         createProperty("tabWidth", 8);
     public static final Property TEXT_FIELD_FONT_SIZE =
         createProperty("textFieldFontSize", 0);
+    public static final Property UNDO_MEMORY_LIMIT =
+        createProperty("undoMemoryLimit", 4096);
     public static final Property VERTICAL_RULE =
         createProperty("verticalRule", 0);
     public static final Property VERTICAL_SCROLL_INCREMENT =
@@ -143,6 +147,8 @@ public final class Property implements Comparable, Constants
         createProperty("extendHome", false);
     public static final Property FILENAME_COMPLETIONS_IGNORE_CASE =
         createProperty("filenameCompletionsIgnoreCase", true);
+    public static final Property FIND_IN_FILES_INDEX =
+        createProperty("findInFilesIndex", false);
     public static final Property FIX_CASE =
         createProperty("fixCase", false);
     public static final Property FTP_USE_PASSIVE_MODE =
@@ -337,9 +337,12 @@ public final class PythonFormatter extends Formatter
     public boolean parseBuffer()
     {
         int state = PYTHON_STATE_NEUTRAL;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(PYTHON_STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         boolean changed = false;
         while (line != null) {
+            if (state == line.flags() && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != line.flags()) {
                 line.setFlags(state);
                 changed = true;
@@ -28,7 +28,12 @@ import java.io.UnsupportedEncodingException;
 
 public class ReaderThread extends Thread
 {
-    private char[] buf = new char[4096];
+    // Don't hand more than this many characters to update() at once, so the
+    // buffer shows something even if the process never stops writing.
+    private static final int MAX_CHUNK = 0x10000;
+
+    private char[] buf = new char[8192];
+    private final FastStringBuffer sb = new FastStringBuffer(buf.length);
     private InputStream inputStream;
     private BufferedReader reader;
     private boolean done = false;
@@ -81,7 +86,7 @@ public class ReaderThread extends Thread
 
     private String read()
     {
-        StringBuffer sb = new StringBuffer();
+        sb.setLength(0);
         try {
             do {
                 int numChars = reader.read(buf, 0, buf.length); // Blocks.
@@ -91,10 +96,17 @@ public class ReaderThread extends Thread
                 }
                 if (numChars > 0)
                     sb.append(buf, 0, numChars);
-                if (timeOut > 0)
-                    Thread.sleep(timeOut);
-                else
-                    Thread.yield();
+                if (sb.length() >= MAX_CHUNK)
+                    break;
+                // Only wait for more output when we've read everything there
+                // is; sleeping after every read limits how fast we can keep
+                // up with a process that writes a lot.
+                if (!reader.ready()) {
+                    if (timeOut > 0)
+                        Thread.sleep(timeOut);
+                    else
+                        Thread.yield();
+                }
             }
             while (reader.ready());
         }
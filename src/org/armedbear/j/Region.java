@@ -281,8 +281,11 @@ public final class Region implements Constants
         try {
             final String head = beginLine.substring(0, beginOffset);
             final String tail = endLine.substring(endOffset);
+            final int lineNumber =
+                buffer.needsRenumbering() ? -1 : beginLine.lineNumber();
             if (beginLine == endLine) {
                 beginLine.setText(head.concat(tail));
+                buffer.modified(beginLine);
             } else {
                 FastStringBuffer sb = new FastStringBuffer();
                 for (Line line = beginLine; line != null; line = line.next()) {
@@ -315,9 +318,12 @@ public final class Region implements Constants
                 beginLine.setNext(nextLine);
                 if (nextLine != null)
                     nextLine.setPrevious(beginLine);
-                buffer.needsRenumbering = true;
+                buffer.needsRenumberingFrom(beginLine.lineNumber());
+                if (lineNumber >= 0)
+                    buffer.modified(lineNumber, lineNumber, true);
+                else
+                    buffer.modified();
             }
-            buffer.modified();
         }
         finally {
             buffer.unlockWrite();
@@ -352,7 +358,7 @@ public final class Region implements Constants
             beginLine.setNext(nextLine);
             if (nextLine != null)
                 nextLine.setPrevious(beginLine);
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.modified();
         }
         finally {
@@ -243,9 +243,12 @@ public final class SchemeFormatter extends Formatter
     {
         int state = STATE_NEUTRAL;
         boolean changed = false;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         while (line != null) {
             int oldflags = line.flags();
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
@@ -405,7 +405,7 @@ public class Search implements Cloneable
                 return null;
             }
         }
-        final String s = buffer.getText();
+        final CharSequence s = buffer.getCharSequence();
         int startIndex = buffer.getAbsoluteOffset(start);
         int endIndex = -1;
         if (restrictToSelection && region != null)
@@ -437,7 +437,8 @@ public class Search implements Cloneable
         }
         int startIndex = 0;
         int endIndex = buffer.getAbsoluteOffset(start);
-        final String s = buffer.getText().substring(0, endIndex);
+        final CharSequence s =
+            buffer.getCharSequence().subSequence(0, endIndex);
         REMatch lastMatch = null;
         while (true) {
             match = findMatch(s, startIndex, -1);
@@ -458,7 +459,7 @@ public class Search implements Cloneable
     }
 
     // Search is restricted to region if endIndex >= 0.
-    private REMatch findMatch(String s, int startIndex, int endIndex)
+    private REMatch findMatch(CharSequence s, int startIndex, int endIndex)
     {
         REMatch m = re.getMatch(s, startIndex);
         if (m == null)
@@ -110,7 +110,7 @@ public class Shell extends CommandInterpreter implements Constants
             MessageDialog.showMessageDialog(message, "Error");
             return null;
         }
-        shell.needsRenumbering = true;
+        shell.needsRenumbering(true);
         return shell;
     }
 
@@ -488,22 +488,44 @@ public class Shell extends CommandInterpreter implements Constants
         super.appendString(s);
     }
 
+    // Output from stdout and stderr, in the order it arrives.
+    private final OutputBatcher outputBatcher = new OutputBatcher() {
+        protected void flush(String s)
+        {
+            final String stdout = takeDirectoryOutput();
+            if (stdout != null)
+                updateDirectory(stdout);
+            if (s.length() > 0)
+                appendString(s);
+            updateLineFlags();
+            updateDisplayInAllFrames();
+            resetUndo();
+            checkPasswordPrompt();
+        }
+    };
+
+    // The first chunk of stdout in the batch waiting to be flushed, which is
+    // where the output of pwd or cd will be. Errors on stderr mustn't be
+    // taken for a directory.
+    private String directoryOutput;
+
+    private synchronized void setDirectoryOutput(String s)
+    {
+        if (directoryOutput == null)
+            directoryOutput = s;
+    }
+
+    private synchronized String takeDirectoryOutput()
+    {
+        final String s = directoryOutput;
+        directoryOutput = null;
+        return s;
+    }
+
     protected void stdOutUpdate(final String s)
     {
-        Runnable r = new Runnable() {
-            public void run()
-            {
-                if (s.length() > 0) {
-                    updateDirectory(s);
-                    appendString(s);
-                }
-                updateLineFlags();
-                updateDisplayInAllFrames();
-                resetUndo();
-                checkPasswordPrompt();
-            }
-        };
-        SwingUtilities.invokeLater(r);
+        setDirectoryOutput(s);
+        outputBatcher.append(s);
     }
 
     protected void stdErrUpdate(final String s)
@@ -521,16 +543,7 @@ public class Shell extends CommandInterpreter implements Constants
                 }
             }
         }
-        Runnable r = new Runnable() {
-            public void run()
-            {
-                appendString(s);
-                updateLineFlags();
-                updateDisplayInAllFrames();
-                resetUndo();
-            }
-        };
-        SwingUtilities.invokeLater(r);
+        outputBatcher.append(s);
     }
 
     protected void updateLineFlags()
@@ -22,6 +22,7 @@
 package org.armedbear.j;
 
 import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -188,6 +189,10 @@ public class SystemBuffer implements Constants
             loadBinary(istream);
             return;
         }
+        if (istream instanceof FileInputStream) {
+            if (loadMapped((FileInputStream) istream, encoding))
+                return;
+        }
         byte[] buf = new byte[4096];
         int totalBytes = 0;
         try {
@@ -330,6 +335,38 @@ public class SystemBuffer implements Constants
         loadFinished(isLoaded);
     }
 
+    // Returns false if the file was not loaded, in which case nothing has been
+    // read from the stream.
+    private boolean loadMapped(FileInputStream in, String encoding)
+    {
+        if (encoding == null) {
+            encoding =
+                Editor.preferences().getStringProperty(Property.DEFAULT_ENCODING);
+        }
+        MappedFileLoader loader = MappedFileLoader.getLoader(in, encoding);
+        if (loader == null)
+            return false;
+        Line[] lines = loader.load();
+        if (lines == null)
+            return false;
+        loadProgress(loader.getFileSize());
+        for (int i = 0; i < lines.length; i++) {
+            appendLine(lines[i]);
+            lines[i] = null;
+        }
+        if (lineSeparator == null)
+            lineSeparator = loader.getLineSeparator();
+        loadEncoding = loader.getEncoding();
+        isLoaded = true;
+        loadFinished(isLoaded);
+        return true;
+    }
+
+    protected final void setLoadEncoding(String encoding)
+    {
+        loadEncoding = encoding;
+    }
+
     public final Line getLastLine()
     {
         return lastLine;
@@ -408,7 +445,7 @@ public class SystemBuffer implements Constants
             throw new SaveException(file,
                                     file.canonicalPath() + " is not writable");
         }
-        if (Platform.isPlatformWindows()) {
+        if (Platform.isPlatformWindows() || !canSaveInPlace()) {
             // writeTemporaryFile() throws a SaveException if an error occurs.
             File tempFile = writeTemporaryFile();
             if (!makePatchFile()) {
@@ -444,6 +481,13 @@ public class SystemBuffer implements Constants
         }
     }
 
+    // Subclasses should override this method if the file must be replaced
+    // rather than rewritten when the buffer is saved.
+    protected boolean canSaveInPlace()
+    {
+        return true;
+    }
+
     // Returns true if patch file was created successfully.
     private final boolean makePatchFile()
     {
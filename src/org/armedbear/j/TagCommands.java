@@ -198,31 +198,14 @@ public final class TagCommands implements Constants
     {
         if (!mode.isTaggable())
             return null;
-        final String name = expression.getName();
-        final int arity = expression.getArity();
-        List tags = Editor.getTagFileManager().getTags(directory, mode);
-        if (tags == null) {
+        GlobalTagIndex index =
+            Editor.getTagFileManager().getTagIndex(directory, mode);
+        if (index == null) {
             if (!directory.isRemote())
                 Editor.getTagFileManager().addToQueue(directory, mode);
             return null;
         }
-        List list = null;
-        Iterator iter = tags.iterator();
-        while (iter.hasNext()) {
-            GlobalTag tag = (GlobalTag) iter.next();
-            String methodName = tag.getMethodName();
-            if (methodName != null && methodName.equals(name)) {
-                if (arity >= 0) {
-                    int n = Expression.getArity(tag.getCanonicalSignature());
-                    if (n >= 0 && n != arity)
-                        continue;
-                }
-                if (list == null)
-                    list = new ArrayList();
-                list.add(tag);
-            }
-        }
-        return list;
+        return index.findMethod(expression.getName(), expression.getArity());
     }
 
     public static List findMatchingTagsInDirectory(String name,
@@ -230,46 +213,14 @@ public final class TagCommands implements Constants
     {
         if (!mode.isTaggable())
             return null;
-        List tags = Editor.getTagFileManager().getTags(directory, mode);
-        if (tags == null) {
+        GlobalTagIndex index =
+            Editor.getTagFileManager().getTagIndex(directory, mode);
+        if (index == null) {
             if (!directory.isRemote())
                 Editor.getTagFileManager().addToQueue(directory, mode);
             return null;
         }
-        boolean isQualified = mode.isQualifiedName(name);
-        List list = new ArrayList();
-        Iterator iter = tags.iterator();
-        while (iter.hasNext()) {
-            GlobalTag tag = (GlobalTag) iter.next();
-            String tagName = tag.getName();
-            if ((ignoreCase && tagName.equalsIgnoreCase(name)) || tagName.equals(name)) {
-                if (arity >= 0) {
-                    int n = Expression.getArity(tag.getCanonicalSignature());
-                    if (n == -1 || n == arity) {
-                        list.add(tag);
-                        continue;
-                    }
-                } else {
-                    list.add(tag);
-                    continue;
-                }
-            }
-            if (!isQualified) {
-                // The name we're looking for does not have a class prefix.
-                String methodName = tag.getMethodName();
-                if (methodName != null) {
-                    if ((ignoreCase && methodName.equalsIgnoreCase(name)) || methodName.equals(name)) {
-                        if (arity >= 0) {
-                            int n = Expression.getArity(tag.getCanonicalSignature());
-                            if (n < 0 || n == arity)
-                                list.add(tag);
-                        } else
-                            list.add(tag);
-                    }
-                }
-            }
-        }
-        return list.size() > 0 ? list : null;
+        return index.find(name, arity, ignoreCase, mode.isQualifiedName(name));
     }
 
     public static boolean findClass(Editor editor, String className,
@@ -21,22 +21,19 @@
 
 package org.armedbear.j;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
 public final class TagFileManager extends Thread
 {
-    // Version of tag file format.
-    private static final String VERSION = "1";
+    // Maximum number of threads used to tag files.
+    private static final int MAX_THREADS = 4;
 
     private final File tagFileDir;
     private final TagFileCatalog catalog;
@@ -128,81 +125,130 @@ public final class TagFileManager extends Thread
     }
 
     public void makeTagFile(File dir, Mode mode)
+    {
+        updateTagFile(dir, mode, false);
+    }
+
+    // If incremental is true, the sections of the existing tag file for source
+    // files that haven't changed are kept, and only the files that have
+    // changed are tagged again. Nothing is written if nothing has changed.
+    private void updateTagFile(File dir, Mode mode, boolean incremental)
     {
         Debug.assertTrue(mode != null);
         try {
             if (dir.isRemote())
                 return;
+            String[] files = dir.list();
+            if (files == null)
+                return;
             File oldTagfile = getTagFile(dir, mode);
+            GlobalTagIndex oldIndex = null;
+            HashMap oldSections = null;
+            if (incremental && oldTagfile != null && oldTagfile.isFile()) {
+                oldIndex = GlobalTagIndex.open(oldTagfile);
+                if (oldIndex != null)
+                    oldSections = readSections(oldIndex);
+            }
+            ArrayList sections = new ArrayList();
+            ArrayList changed = new ArrayList();
+            for (int i = 0; i < files.length; i++) {
+                File file = File.getInstance(dir, files[i]);
+                if (!mode.accepts(file.getName()) || !file.isFile())
+                    continue;
+                Section section =
+                    new Section(files[i], file.lastModified(), file.length());
+                Section old = null;
+                if (oldSections != null)
+                    old = (Section) oldSections.remove(files[i]);
+                if (old != null && old.lastModified == section.lastModified &&
+                    old.length == section.length)
+                    section.oldIndex = old.oldIndex;
+                else
+                    changed.add(section);
+                sections.add(section);
+            }
+            if (oldSections != null && oldSections.isEmpty() && changed.isEmpty())
+                return; // Up to date.
+            tagFiles(dir, mode, changed);
             File tagfile = Utilities.getTempFile(tagFileDir);
-            if (tagfile != null) {
-                String[] files = dir.list();
-                if (files != null) {
-                    BufferedWriter writer =
-                        new BufferedWriter(new OutputStreamWriter(
-                            tagfile.getOutputStream()));
-                    writer.write(VERSION);
-                    writer.write('\n');
-                    for (int i = 0; i < files.length; i++) {
-                        File file = File.getInstance(dir, files[i]);
-                        if (mode.accepts(file.getName()) && file.isFile()) {
-                            SystemBuffer buf = new SystemBuffer(file);
-                            buf.load();
-                            Tagger tagger = mode.getTagger(buf);
-                            tagger.run();
-                            tagger.writeTags(writer);
-                            buf._empty();
-                        }
-                    }
-                    writer.flush();
-                    writer.close();
-                    if (tagfile.length() == 0) {
-                        tagfile.delete();
-                    } else {
-                        catalog.addEntry(dir, tagfile, mode);
-                        catalog.save();
-                        if (oldTagfile != null) {
-                            oldTagfile.delete();
-                            if (cache != null)
-                                cache.remove(oldTagfile);
-                        }
-                    }
+            if (tagfile == null)
+                return;
+            GlobalTagIndex.Builder builder = new GlobalTagIndex.Builder();
+            for (int i = 0; i < sections.size(); i++) {
+                Section section = (Section) sections.get(i);
+                builder.addSection(section.name, section.lastModified,
+                    section.length);
+                // The tags of a section that hasn't changed are only read
+                // now, when we know they're going to be written.
+                final List tags = section.oldIndex >= 0 ?
+                    oldIndex.getSectionTags(section.oldIndex) : section.tags;
+                for (int j = 0; j < tags.size(); j++)
+                    builder.addTag((GlobalTag) tags.get(j));
+            }
+            builder.write(tagfile);
+            if (tagfile.length() == 0) {
+                tagfile.delete();
+            } else {
+                catalog.addEntry(dir, tagfile, mode);
+                catalog.save();
+                if (oldTagfile != null) {
+                    oldTagfile.delete();
+                    if (cache != null)
+                        cache.remove(oldTagfile);
                 }
             }
+            Log.debug("updateTagFile " + dir + " " + changed.size() + " of " +
+                sections.size() + " files tagged");
         }
         catch (Exception e) {
             Log.error(e);
         }
     }
 
-    private boolean isTagFileOutOfDate(QueueEntry entry)
+    // Returns the sections of a tag file, keyed by the names of the source
+    // files. Only the section headers are read; each section refers to its
+    // tags by its position in the index.
+    private static HashMap readSections(GlobalTagIndex index)
     {
-        if (entry.directory.isRemote())
-            return false;
-        File tagfile = getTagFile(entry.directory, entry.mode);
-        if (tagfile == null)
-            return true;
-        if (!tagfile.exists())
-            return true;
-        long tagfileLastModified = tagfile.lastModified();
-        String[] files = entry.directory.list();
-        if (files != null) {
-            for (int i = 0; i < files.length; i++) {
-                File file = File.getInstance(entry.directory, files[i]);
-                if (!file.isFile())
-                    continue;
-                if (entry.mode.accepts(file.getName()))
-                    if (file.lastModified() > tagfileLastModified)
-                        return true;
-            }
+        HashMap sections = new HashMap();
+        for (int i = 0; i < index.getSectionCount(); i++) {
+            Section section = new Section(index.getSectionName(i),
+                index.getSectionLastModified(i), index.getSectionLength(i));
+            section.oldIndex = i;
+            sections.put(section.name, section);
+        }
+        return sections;
+    }
+
+    // Tags the source files for sections, using a few threads if there are
+    // enough files to make it worthwhile.
+    private void tagFiles(File dir, Mode mode, List sections)
+        throws InterruptedException
+    {
+        if (sections.isEmpty())
+            return;
+        SectionTagger tagger = new SectionTagger(dir, mode, sections);
+        int numThreads = Math.min(Runtime.getRuntime().availableProcessors(),
+            Math.min(MAX_THREADS, sections.size()));
+        if (numThreads <= 1) {
+            tagger.run();
+            return;
         }
-        return false;
+        Thread[] threads = new Thread[numThreads - 1];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(tagger, "tag file manager");
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        tagger.run();
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
     }
 
     private void refreshTagFile(QueueEntry queueEntry)
     {
-        if (isTagFileOutOfDate(queueEntry))
-            makeTagFile(queueEntry.directory, queueEntry.mode);
+        updateTagFile(queueEntry.directory, queueEntry.mode, true);
     }
 
     private synchronized void cleanup()
@@ -227,6 +273,12 @@ public final class TagFileManager extends Thread
     }
 
     public List getTags(File directory, Mode mode)
+    {
+        GlobalTagIndex index = getTagIndex(directory, mode);
+        return index != null ? index.getTags() : null;
+    }
+
+    public GlobalTagIndex getTagIndex(File directory, Mode mode)
     {
         File tagFile = getTagFile(directory, mode);
         if (tagFile == null) {
@@ -237,37 +289,111 @@ public final class TagFileManager extends Thread
             Log.debug("getTags tag file doesn't exist");
             return null;
         }
-        List tags = null;
+        GlobalTagIndex index = null;
         // First checked cached tag files.
         if (cache != null)
-            tags = cache.getTags(tagFile);
-        if (tags == null) {
-            try {
-                BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(tagFile.getInputStream()));
-                String s = reader.readLine();
-                if (s != null && s.equals(VERSION)) {
-                    tags = new ArrayList();
-                    while ((s = reader.readLine()) != null) {
-                        GlobalTag tag = GlobalTag.makeGlobalTag(s);
-                        if (tag != null)
-                            tags.add(tag);
-                    }
-                } else {
-                    Log.warn("getTags wrong version " + directory + " " +
-                        mode);
-                }
-                reader.close();
-            }
-            catch (IOException e) {
-                Log.error(e);
-            }
-            if (tags != null) {
+            index = cache.getTagIndex(tagFile);
+        if (index == null) {
+            index = GlobalTagIndex.open(tagFile);
+            if (index != null) {
                 if (cache == null)
                     cache = new TagFileCache();
-                cache.add(directory, mode.toString(), tagFile, tags);
-            } else
+                cache.add(directory, mode.toString(), tagFile, index);
+            } else {
+                Log.warn("getTags wrong version " + directory + " " + mode);
                 tagFile.delete();
+            }
+        }
+        return index;
+    }
+
+    // Called when memory is short.
+    public void releaseCache()
+    {
+        final TagFileCache c = cache;
+        if (c != null)
+            c.clear();
+    }
+
+    // The part of a tag file for one source file.
+    private static class Section
+    {
+        final String name;
+        final long lastModified;
+        final long length;
+        List tags = Collections.EMPTY_LIST;
+
+        // Position of the section in the old tag file, if its tags are to be
+        // copied from there, otherwise -1.
+        int oldIndex = -1;
+
+        Section(String name, long lastModified, long length)
+        {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    // Tags the source files for a list of sections. Any number of threads may
+    // run the same SectionTagger; each takes the next section that hasn't
+    // been done yet.
+    private static class SectionTagger implements Runnable
+    {
+        private final File dir;
+        private final Mode mode;
+        private final List sections;
+        private int next;
+
+        SectionTagger(File dir, Mode mode, List sections)
+        {
+            this.dir = dir;
+            this.mode = mode;
+            this.sections = sections;
+        }
+
+        private synchronized Section nextSection()
+        {
+            if (next == sections.size())
+                return null;
+            return (Section) sections.get(next++);
+        }
+
+        public void run()
+        {
+            Section section;
+            while ((section = nextSection()) != null) {
+                try {
+                    File file = File.getInstance(dir, section.name);
+                    SystemBuffer buf = new SystemBuffer(file);
+                    buf.load();
+                    Tagger tagger = mode.getTagger(buf);
+                    if (tagger != null) {
+                        StringWriter writer = new StringWriter();
+                        tagger.run();
+                        tagger.writeTags(writer);
+                        section.tags = parseTags(writer.toString());
+                    }
+                    buf._empty();
+                }
+                catch (Exception e) {
+                    Log.error(e);
+                }
+            }
+        }
+    }
+
+    // Makes global tags from the output of Tagger.writeTags().
+    private static List parseTags(String s)
+    {
+        ArrayList tags = new ArrayList();
+        int begin = 0;
+        int end;
+        while ((end = s.indexOf('\n', begin)) >= 0) {
+            GlobalTag tag = GlobalTag.makeGlobalTag(s.substring(begin, end));
+            if (tag != null)
+                tags.add(tag);
+            begin = end + 1;
         }
         return tags;
     }
@@ -303,13 +429,14 @@ public final class TagFileManager extends Thread
 
     private static class TagFileCache
     {
-        private static final int MAX_FILES = 5;
+        // A cached tag file costs little more than its mapping.
+        private static final int MAX_FILES = 32;
 
         private ArrayList list = new ArrayList(MAX_FILES);
 
         TagFileCache() {}
 
-        synchronized List getTags(File tagFile)
+        synchronized GlobalTagIndex getTagIndex(File tagFile)
         {
             Iterator iter = list.iterator();
             while (iter.hasNext()) {
@@ -327,16 +454,16 @@ public final class TagFileManager extends Thread
                     Debug.assertTrue(newList.size() == list.size());
                     list = newList;
                     checkOrder();
-                    return entry.tags;
+                    return entry.index;
                 }
             }
             return null;
         }
 
         synchronized void add(File directory, String modeName,
-            File tagFile, List tags)
+            File tagFile, GlobalTagIndex index)
         {
-            CacheEntry entry = new CacheEntry(directory, modeName, tagFile, tags);
+            CacheEntry entry = new CacheEntry(directory, modeName, tagFile, index);
             ArrayList newList = new ArrayList(MAX_FILES);
             newList.add(entry);
             int count = 1;
@@ -366,6 +493,11 @@ public final class TagFileManager extends Thread
             // Not found.
         }
 
+        synchronized void clear()
+        {
+            list = new ArrayList(MAX_FILES);
+        }
+
         // Only called from synchronized methods.
         void checkOrder()
         {
@@ -393,16 +525,16 @@ public final class TagFileManager extends Thread
         final File directory; // Needed for debugging only!
         final String modeName; // Needed for debugging only!
         final File tagFile;
-        List tags;
+        GlobalTagIndex index;
         long lastAccess; // Needed for debugging only!
 
         CacheEntry(File directory, String modeName, File tagFile,
-            List tags)
+            GlobalTagIndex index)
         {
             this.directory = directory;
             this.modeName = modeName;
             this.tagFile = tagFile;
-            this.tags = tags;
+            this.index = index;
             this.lastAccess = System.currentTimeMillis();
         }
 
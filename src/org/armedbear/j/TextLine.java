@@ -29,10 +29,22 @@ public class TextLine extends AbstractLine implements Line
     private static final int NEW   = 0x0002;
 
     private int flags;
-    private String text;
+    private volatile String text;
     private String originalText;
     private int bits;
 
+    // The text of an unchanged line that was loaded from a file may be a
+    // slice of an array of ISO-8859-1 bytes that it shares with the lines
+    // around it: count characters starting at bytes[offset]. Otherwise bytes
+    // is null. The first call to getText() replaces the bytes with a String.
+    //
+    // Lines are read without the buffer's lock, so text is always set before
+    // bytes is cleared, and bytes is always read first: a thread that finds
+    // bytes null is sure to see the text.
+    private volatile byte[] bytes;
+    private int offset;
+    private int count;
+
     protected TextLine()
     {
     }
@@ -42,28 +54,57 @@ public class TextLine extends AbstractLine implements Line
         text = s;
     }
 
+    public TextLine(byte[] bytes, int offset, int count)
+    {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.count = count;
+    }
+
     protected final void init(String s)
     {
         text = s;
+        bytes = null;
     }
 
-    public final synchronized int flags()
+    // Like the text itself, the flags are protected by the buffer's lock.
+    public final int flags()
     {
         return flags;
     }
 
-    public final synchronized void setFlags(int flags)
+    public final void setFlags(int flags)
     {
         this.flags = flags;
     }
 
-    public final synchronized String getText()
+    public final String getText()
+    {
+        final byte[] b = bytes;
+        if (b == null) {
+            final String s = text;
+            return s != null ? s : "";
+        }
+        final String s = decode(b, offset, count);
+        text = s;
+        bytes = null;
+        return s;
+    }
+
+    // ISO-8859-1 maps each byte to the char with the same value. This is what
+    // the deprecated String(byte[], int, int, int) constructor does.
+    private static String decode(byte[] b, int offset, int count)
     {
-        return text != null ? text : "";
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++)
+            chars[i] = (char) (b[offset + i] & 0xff);
+        return new String(chars);
     }
 
-    public final synchronized void setText(String s)
+    public final void setText(String s)
     {
+        if (bytes != null)
+            getText(); // Replaces the bytes with a String.
         if (originalText == null)
             originalText = text;
         text = s;
@@ -113,6 +154,18 @@ public class TextLine extends AbstractLine implements Line
             bits &= ~SAVED;
     }
 
+    // The bit flags, so they can be saved and restored along with the text,
+    // as copy() does.
+    final int getBits()
+    {
+        return bits;
+    }
+
+    final void setBits(int bits)
+    {
+        this.bits = bits;
+    }
+
     public final void unmodified()
     {
         originalText = null;
@@ -121,16 +174,28 @@ public class TextLine extends AbstractLine implements Line
 
     public final char charAt(int i)
     {
+        final byte[] b = bytes;
+        if (b != null) {
+            if (i < 0 || i >= count)
+                throw new StringIndexOutOfBoundsException(i);
+            return (char) (b[offset + i] & 0xff);
+        }
         return getText().charAt(i);
     }
 
     public final String substring(int beginIndex)
     {
-        return getText().substring(beginIndex);
+        return substring(beginIndex, length());
     }
 
     public final String substring(int beginIndex, int endIndex)
     {
+        final byte[] b = bytes;
+        if (b != null) {
+            if (beginIndex < 0 || endIndex > count || beginIndex > endIndex)
+                throw new StringIndexOutOfBoundsException();
+            return decode(b, offset + beginIndex, endIndex - beginIndex);
+        }
         return getText().substring(beginIndex, endIndex);
     }
 
@@ -141,7 +206,9 @@ public class TextLine extends AbstractLine implements Line
 
     public final int length()
     {
-        return getText().length();
+        if (bytes != null)
+            return count;
+        return text != null ? text.length() : 0;
     }
 
     public final int getWidth()
@@ -167,10 +234,8 @@ public class TextLine extends AbstractLine implements Line
 
     public final boolean isBlank()
     {
-        String s = getText();
-
-        for (int i = s.length(); i-- > 0;)
-            if (!Character.isWhitespace(s.charAt(i)))
+        for (int i = length(); i-- > 0;)
+            if (!Character.isWhitespace(charAt(i)))
                 return false;
 
         return true;
@@ -179,7 +244,11 @@ public class TextLine extends AbstractLine implements Line
     // Copies text, original text, and bit flags only.
     public Line copy()
     {
-        TextLine line = new TextLine(text);
+        final byte[] b = bytes;
+        TextLine line = new TextLine(b == null ? text : null);
+        line.bytes = b;
+        line.offset = offset;
+        line.count = count;
         line.originalText = originalText;
         line.bits = bits;
         return line;
@@ -190,10 +259,24 @@ public class TextLine extends AbstractLine implements Line
     {
         if (line instanceof TextLine) {
             TextLine textLine = (TextLine) line;
-            text = textLine.text;
+            final byte[] b = textLine.bytes;
+            if (b != null) {
+                offset = textLine.offset;
+                count = textLine.count;
+                bytes = b;
+                text = null;
+            } else {
+                text = textLine.text;
+                bytes = null;
+            }
             originalText = textLine.originalText;
             bits = textLine.bits;
-        } else
-            Debug.bug();
+        } else {
+            text = line.getText();
+            bytes = null;
+            originalText = line.getOriginalText();
+            setNew(line.isNew());
+            setSaved(line.isSaved());
+        }
     }
 }
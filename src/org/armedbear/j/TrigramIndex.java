@@ -0,0 +1,450 @@
+/*
+ * TrigramIndex.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// The trigrams (sequences of three characters) found in each of the files
+// under a directory, so that find in files can skip the files that can't
+// possibly contain the pattern (see the findInFilesIndex preference).
+//
+// Characters are folded to lower case, so the same index works for searches
+// that ignore case and searches that don't. An entry is only used if the
+// file's size and last modified time haven't changed since it was made;
+// otherwise the file is searched as usual and its entry is replaced. The
+// index is saved in the "index" directory, next to the tag files.
+public final class TrigramIndex
+{
+    // Results of check().
+    public static final int BINARY      = 0; // Binary file, don't search.
+    public static final int NOT_FOUND   = 1; // No need to search.
+    public static final int FOUND       = 2; // Might contain the pattern.
+    public static final int NOT_INDEXED = 3; // Unknown or changed.
+
+    // Version of index file format.
+    private static final int VERSION = 1;
+
+    // The index most recently used.
+    private static TrigramIndex currentIndex;
+
+    private final File root;
+    private final String rootPath;
+    private final File indexFile;
+    private final HashMap entries = new HashMap();
+    private boolean modified;
+
+    private TrigramIndex(File root, File indexFile)
+    {
+        this.root = root;
+        this.rootPath = root.canonicalPath();
+        this.indexFile = indexFile;
+    }
+
+    // Returns null if the index directory can't be created.
+    public static synchronized TrigramIndex getIndex(File dir)
+    {
+        if (currentIndex != null && currentIndex.root.equals(dir))
+            return currentIndex;
+        File indexDir =
+            File.getInstance(Directories.getEditorDirectory(), "index");
+        if (!indexDir.isDirectory()) {
+            indexDir.mkdirs();
+            if (!indexDir.isDirectory()) {
+                Log.error("TrigramIndex.getIndex can't make directory ".concat(indexDir.canonicalPath()));
+                return null;
+            }
+        }
+        String name = Integer.toHexString(dir.canonicalPath().hashCode());
+        TrigramIndex index =
+            new TrigramIndex(dir, File.getInstance(indexDir, name));
+        index.load();
+        currentIndex = index;
+        return index;
+    }
+
+    // Returns the trigrams that every line matching search must contain,
+    // sorted, or null if there aren't any (if the pattern is too short, or
+    // it's a regular expression with alternatives at the top level).
+    public static int[] getTrigrams(Search search)
+    {
+        ArrayList literals = new ArrayList();
+        if (search.isRegularExpression()) {
+            if (!getLiterals(search.getPattern(), literals))
+                return null;
+        } else
+            literals.add(search.getPattern());
+        int[] array = new int[16];
+        int count = 0;
+        for (int i = 0; i < literals.size(); i++) {
+            String s = (String) literals.get(i);
+            for (int j = 0; j + 2 < s.length(); j++) {
+                final char c0 = s.charAt(j);
+                final char c1 = s.charAt(j + 1);
+                final char c2 = s.charAt(j + 2);
+                // Depending on the locale, a case-insensitive search might
+                // match non-ASCII characters in ways the index doesn't know
+                // about, so only ASCII trigrams are used.
+                if (c0 >= 0x80 || c1 >= 0x80 || c2 >= 0x80)
+                    continue;
+                if (count == array.length) {
+                    int[] newArray = new int[count * 2];
+                    System.arraycopy(array, 0, newArray, 0, count);
+                    array = newArray;
+                }
+                array[count++] = trigram(c0, c1, c2);
+            }
+        }
+        if (count == 0)
+            return null;
+        return unique(array, count);
+    }
+
+    // Adds the literal strings that a match of the regular expression pattern
+    // must contain to list. Only text outside of groups is considered. Returns
+    // false if the pattern has alternatives at the top level.
+    private static boolean getLiterals(String pattern, ArrayList list)
+    {
+        FastStringBuffer sb = new FastStringBuffer();
+        final int limit = pattern.length();
+        int depth = 0;
+        int i = 0;
+        while (i < limit) {
+            char c = pattern.charAt(i++);
+            if (c == '\\') {
+                if (i == limit)
+                    break;
+                c = pattern.charAt(i++);
+                if (depth == 0 && "\\.[]{}()*+?^$|/-".indexOf(c) >= 0)
+                    sb.append(c);
+                else
+                    addLiteral(sb, list); // \w, \b, \1 etc.
+                continue;
+            }
+            switch (c) {
+                case '[':
+                    addLiteral(sb, list);
+                    // Skip the rest of the character class.
+                    if (i < limit && pattern.charAt(i) == '^')
+                        ++i;
+                    if (i < limit && pattern.charAt(i) == ']')
+                        ++i;
+                    while (i < limit && pattern.charAt(i) != ']') {
+                        if (pattern.charAt(i) == '\\')
+                            ++i;
+                        ++i;
+                    }
+                    ++i;
+                    break;
+                case '(':
+                    addLiteral(sb, list);
+                    ++depth;
+                    break;
+                case ')':
+                    addLiteral(sb, list);
+                    if (depth > 0)
+                        --depth;
+                    break;
+                case '|':
+                    if (depth == 0)
+                        return false;
+                    break;
+                case '*':
+                case '?':
+                case '{':
+                    // The preceding character is optional.
+                    if (depth == 0 && sb.length() > 0)
+                        sb.setLength(sb.length() - 1);
+                    addLiteral(sb, list);
+                    if (c == '{') {
+                        while (i < limit && pattern.charAt(i) != '}')
+                            ++i;
+                        ++i;
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    addLiteral(sb, list);
+                    break;
+                default:
+                    if (depth == 0)
+                        sb.append(c);
+                    break;
+            }
+        }
+        addLiteral(sb, list);
+        return true;
+    }
+
+    private static void addLiteral(FastStringBuffer sb, ArrayList list)
+    {
+        if (sb.length() >= 3)
+            list.add(sb.toString());
+        sb.setLength(0);
+    }
+
+    private static int trigram(char c0, char c1, char c2)
+    {
+        return (fold(c0) << 20) | (fold(c1) << 10) | fold(c2);
+    }
+
+    // Different characters may end up with the same code, which just means
+    // that a file is searched when it didn't need to be.
+    private static int fold(char c)
+    {
+        return Character.toLowerCase(c) & 0x3ff;
+    }
+
+    private static int[] unique(int[] array, int count)
+    {
+        Arrays.sort(array, 0, count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n == 0 || array[i] != array[n - 1])
+                array[n++] = array[i];
+        }
+        int[] result = new int[n];
+        System.arraycopy(array, 0, result, 0, n);
+        return result;
+    }
+
+    // trigrams may be null, if the pattern doesn't have any. Only called from
+    // the thread that walks the directories.
+    public int check(File file, int[] trigrams)
+    {
+        final String key = getKey(file);
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final Entry entry;
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+            if (entry == null)
+                return NOT_INDEXED;
+            entry.seen = true;
+        }
+        if (entry.lastModified != lastModified || entry.length != length)
+            return NOT_INDEXED;
+        if (entry.trigrams == null)
+            return BINARY;
+        if (trigrams == null || contains(entry.trigrams, trigrams))
+            return FOUND;
+        return NOT_FOUND;
+    }
+
+    // Replaces the entry for file. lastModified and length must be the values
+    // from before text was read from the file. If text is null, the file is
+    // binary.
+    public void update(File file, long lastModified, long length, String text)
+    {
+        final byte[] trigrams = text != null ? encode(text) : null;
+        final String key = getKey(file);
+        synchronized (this) {
+            Entry entry = new Entry(lastModified, length, trigrams);
+            entry.seen = true;
+            entries.put(key, entry);
+            modified = true;
+        }
+    }
+
+    private String getKey(File file)
+    {
+        String path = file.canonicalPath();
+        if (path.startsWith(rootPath) && path.length() > rootPath.length() + 1)
+            return path.substring(rootPath.length() + 1);
+        return path;
+    }
+
+    // Returns the sorted trigrams of text, as differences between each one
+    // and the one before it, in a variable number of bytes.
+    private static byte[] encode(String text)
+    {
+        final int limit = text.length() - 2;
+        if (limit <= 0)
+            return new byte[0];
+        int[] array = new int[limit];
+        for (int i = 0; i < limit; i++)
+            array[i] = trigram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2));
+        array = unique(array, limit);
+        byte[] bytes = new byte[array.length * 5];
+        int n = 0;
+        int previous = 0;
+        for (int i = 0; i < array.length; i++) {
+            int delta = array[i] - previous;
+            previous = array[i];
+            while (delta >= 0x80) {
+                bytes[n++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            bytes[n++] = (byte) delta;
+        }
+        byte[] result = new byte[n];
+        System.arraycopy(bytes, 0, result, 0, n);
+        return result;
+    }
+
+    // Returns true if all of the (sorted) trigrams are in the encoded list.
+    private static boolean contains(byte[] bytes, int[] trigrams)
+    {
+        int i = 0;
+        int value = 0;
+        for (int j = 0; j < trigrams.length; j++) {
+            final int wanted = trigrams[j];
+            while (true) {
+                if (i == bytes.length)
+                    return false;
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[i++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                if (value == wanted)
+                    break;
+                if (value > wanted)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void load()
+    {
+        if (!indexFile.isFile())
+            return;
+        try {
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(indexFile.getInputStream()));
+            try {
+                if (in.readInt() != VERSION) {
+                    Log.warn("TrigramIndex.load wrong version " + rootPath);
+                    return;
+                }
+                if (!in.readUTF().equals(rootPath)) {
+                    // Another directory with the same hash code.
+                    return;
+                }
+                final int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    long lastModified = in.readLong();
+                    long length = in.readLong();
+                    int n = in.readInt();
+                    byte[] trigrams = null;
+                    if (n >= 0) {
+                        trigrams = new byte[n];
+                        in.readFully(trigrams);
+                    }
+                    entries.put(key, new Entry(lastModified, length, trigrams));
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            Log.error(e);
+            entries.clear();
+        }
+    }
+
+    // Does nothing if nothing has changed since the index was loaded.
+    public synchronized void save()
+    {
+        if (!modified)
+            return;
+        // Forget files that have been deleted.
+        for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry mapEntry = (Map.Entry) it.next();
+            Entry entry = (Entry) mapEntry.getValue();
+            if (entry.seen) {
+                entry.seen = false;
+            } else {
+                File file = File.getInstance(root, (String) mapEntry.getKey());
+                if (file == null || !file.isFile())
+                    it.remove();
+            }
+        }
+        File tempFile = Utilities.getTempFile(indexFile.getParentFile());
+        if (tempFile == null)
+            return;
+        try {
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(tempFile.getOutputStream()));
+            try {
+                out.writeInt(VERSION);
+                out.writeUTF(rootPath);
+                out.writeInt(entries.size());
+                for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry mapEntry = (Map.Entry) it.next();
+                    Entry entry = (Entry) mapEntry.getValue();
+                    out.writeUTF((String) mapEntry.getKey());
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.length);
+                    if (entry.trigrams != null) {
+                        out.writeInt(entry.trigrams.length);
+                        out.write(entry.trigrams);
+                    } else
+                        out.writeInt(-1);
+                }
+            }
+            finally {
+                out.close();
+            }
+            indexFile.delete();
+            if (tempFile.renameTo(indexFile))
+                modified = false;
+            else
+                Log.error("TrigramIndex.save unable to rename " + tempFile);
+        }
+        catch (IOException e) {
+            Log.error(e);
+            tempFile.delete();
+        }
+    }
+
+    private static final class Entry
+    {
+        final long lastModified;
+        final long length;
+        final byte[] trigrams; // Null if the file is binary.
+        boolean seen;
+
+        Entry(long lastModified, long length, byte[] trigrams)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.trigrams = trigrams;
+        }
+    }
+}
@@ -114,7 +114,7 @@ public final class UndoDeleteLineSeparator extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(first, dotOffset);
@@ -165,7 +165,7 @@ public final class UndoDeleteLineSeparator extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(restored, dotOffset);
@@ -30,12 +30,16 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
     private final PreState preState;
     private PostState postState;
     private final LineSequence lines;
+    private final UndoStore store;
 
     public UndoDeleteRegion(Editor editor, Region r)
     {
         Debug.assertTrue(!editor.isColumnSelection());
         preState = new PreState(editor);
         lines = new LineSequence(r.getBeginLine(), r.getEndLine());
+        store = editor.getBuffer().getUndoStore();
+        if (store != null)
+            store.add(lines);
     }
 
     public void undo()
@@ -44,6 +48,8 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
         final Editor editor = Editor.currentEditor();
         final Buffer buffer = editor.getBuffer();
         postState = new PostState(editor);
+        if (store != null)
+            store.remove(lines);
         preState.restoreState(editor);
         editor.setUpdateFlag(REFRAME);
 
@@ -62,6 +68,8 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
         final Editor editor = Editor.currentEditor();
         final Buffer buffer = editor.getBuffer();
         postState.restoreState(editor);
+        if (store != null)
+            store.add(lines);
         editor.setUpdateFlag(REFRAME);
 
         if (postState.modificationCount != preState.modificationCount) {
@@ -73,6 +81,13 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
         }
     }
 
+    public void die()
+    {
+        super.die();
+        if (store != null)
+            store.discard(lines);
+    }
+
     private class PreState
     {
         final int dotLineNumber;
@@ -126,7 +141,7 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(dotLineNumber, dotOffset);
@@ -184,7 +199,7 @@ public class UndoDeleteRegion extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(restored, dotOffset);
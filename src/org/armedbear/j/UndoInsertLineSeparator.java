@@ -113,7 +113,7 @@ public final class UndoInsertLineSeparator extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(restored, dotOffset);
@@ -168,7 +168,7 @@ public final class UndoInsertLineSeparator extends AbstractUndoableEdit
 
             buffer.setModCount(modificationCount);
 
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(dotLineNumber, dotOffset);
@@ -31,10 +31,12 @@ public class UndoInsertString extends AbstractUndoableEdit
     private final PreState preState;
     private PostState postState;
     private LineSequence lines;
+    private final UndoStore store;
 
     public UndoInsertString(Editor editor)
     {
         buffer = editor.getBuffer();
+        store = buffer.getUndoStore();
         preState = new PreState(editor);
         postState = new PostState(editor);
     }
@@ -58,6 +60,13 @@ public class UndoInsertString extends AbstractUndoableEdit
         update(editor);
     }
 
+    public void die()
+    {
+        super.die();
+        if (store != null && lines != null)
+            store.discard(lines);
+    }
+
     private void update(Editor editor)
     {
         editor.setUpdateFlag(REFRAME);
@@ -111,11 +120,15 @@ public class UndoInsertString extends AbstractUndoableEdit
                 editor.adjustMarkers(ln);
             if (first == last) {
                 lines = new LineSequence(first);
+                if (store != null)
+                    store.add(lines);
                 first.copy(line);
                 Editor.updateInAllEditors(first);
             } else {
                 final Line before = first.previous();
                 lines = new LineSequence(first, last);
+                if (store != null)
+                    store.add(lines);
                 final Line restored = line.copy();
                 restored.setPrevious(before);
                 if (before != null)
@@ -125,7 +138,7 @@ public class UndoInsertString extends AbstractUndoableEdit
                 restored.setNext(after);
                 if (after != null)
                     after.setPrevious(restored);
-                buffer.needsRenumbering = true;
+                buffer.needsRenumbering(true);
                 buffer.renumber();
                 buffer.repaint();
             }
@@ -170,6 +183,8 @@ public class UndoInsertString extends AbstractUndoableEdit
         void restoreState(Editor editor)
         {
             final Line dotLine = editor.getDotLine();
+            if (store != null)
+                store.remove(lines);
             if (lines.size() == 1) {
                 dotLine.copy(lines.getFirstLine());
                 Editor.updateInAllEditors(dotLine);
@@ -184,7 +199,7 @@ public class UndoInsertString extends AbstractUndoableEdit
                 lines.getLastLine().setNext(after);
                 if (after != null)
                     after.setPrevious(lines.getLastLine());
-                buffer.needsRenumbering = true;
+                buffer.needsRenumbering(true);
                 buffer.renumber();
                 buffer.repaint();
             }
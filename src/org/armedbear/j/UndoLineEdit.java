@@ -22,6 +22,7 @@
 package org.armedbear.j;
 
 import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoableEdit;
 
 public class UndoLineEdit extends AbstractUndoableEdit implements Constants,
@@ -56,8 +57,22 @@ public class UndoLineEdit extends AbstractUndoableEdit implements Constants,
         return false;
     }
 
+    // Called by UndoManager when the next edit is added. The line now has the
+    // text it had after this edit, so the copy of the line from before the
+    // edit can be replaced by the part of its text that was changed.
+    void compact()
+    {
+        if (postState == null)
+            preState.compact(buffer.getLine(changeLineNumber));
+    }
+
     public void undo()
     {
+        // A compacted edit can only be undone if the line is as the edit
+        // left it. If it isn't, the buffer would be left with the wrong
+        // text, but with the modification count it had before the edit.
+        if (!preState.canRestore())
+            throw new CannotUndoException();
         super.undo();
         final Editor editor = Editor.currentEditor();
         Debug.assertTrue(editor.getBuffer() == buffer);
@@ -101,7 +116,22 @@ public class UndoLineEdit extends AbstractUndoableEdit implements Constants,
         final boolean isColumnSelection;
         final int modificationCount;
         final boolean modified;
-        final Line line;
+
+        // Copy of the line, or null if the state has been compacted.
+        private Line line;
+
+        // After compaction, the text of the line is the first prefixLength
+        // characters of the line's text after the edit, followed by middle,
+        // followed by the last suffixLength characters.
+        private int prefixLength;
+        private int suffixLength;
+        private String middle;
+        private String originalText;
+        private int bits;
+
+        // Length and hash code of the line's text after the edit.
+        private int postLength;
+        private int postHash;
 
         State(Editor editor)
         {
@@ -141,6 +171,68 @@ public class UndoLineEdit extends AbstractUndoableEdit implements Constants,
             line = buffer.getLine(changeLineNumber).copy();
         }
 
+        void compact(Line changeLine)
+        {
+            if (line == null || line.getClass() != TextLine.class)
+                return;
+            if (changeLine == null)
+                return;
+            final String before = line.getText();
+            final String after = changeLine.getText();
+            final int limit = Math.min(before.length(), after.length());
+            int begin = 0;
+            while (begin < limit && before.charAt(begin) == after.charAt(begin))
+                ++begin;
+            int end = 0;
+            while (end < limit - begin &&
+                before.charAt(before.length() - 1 - end) == after.charAt(after.length() - 1 - end))
+                ++end;
+            prefixLength = begin;
+            suffixLength = end;
+            // Make sure the substring doesn't share the original's array.
+            middle = new String(before.substring(begin, before.length() - end));
+            originalText = line.getOriginalText();
+            bits = ((TextLine) line).getBits();
+            postLength = after.length();
+            postHash = after.hashCode();
+            line = null;
+        }
+
+        boolean canRestore()
+        {
+            if (line != null)
+                return true;
+            final Line changeLine = buffer.getLine(changeLineNumber);
+            if (changeLine == null)
+                return false;
+            final String after = changeLine.getText();
+            if (after.length() != postLength || after.hashCode() != postHash) {
+                Log.error("UndoLineEdit line " + changeLineNumber +
+                    " has changed since the edit");
+                return false;
+            }
+            return true;
+        }
+
+        // Returns null if the line can't be reconstructed.
+        private Line getLine(Line changeLine)
+        {
+            if (line != null)
+                return line;
+            final String after = changeLine.getText();
+            if (after.length() != postLength || after.hashCode() != postHash)
+                return null;
+            FastStringBuffer sb =
+                new FastStringBuffer(prefixLength + middle.length() + suffixLength);
+            sb.append(after.substring(0, prefixLength));
+            sb.append(middle);
+            sb.append(after.substring(after.length() - suffixLength));
+            TextLine restored = new TextLine(sb.toString());
+            restored.setOriginalText(originalText);
+            restored.setBits(bits);
+            return restored;
+        }
+
         void restoreState(Editor editor)
         {
             Debug.assertTrue(editor.getBuffer() == buffer);
@@ -149,7 +241,10 @@ public class UndoLineEdit extends AbstractUndoableEdit implements Constants,
             if (!buffer.isWriteLocked())
                 Debug.bug();
             Line changeLine = buffer.getLine(changeLineNumber);
-            changeLine.copy(line);
+            Line restored = getLine(changeLine);
+            if (restored == null)
+                throw new CannotUndoException();
+            changeLine.copy(restored);
             Editor.updateInAllEditors(changeLine);
 
             buffer.setModCount(modificationCount);
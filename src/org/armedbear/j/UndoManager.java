@@ -26,6 +26,25 @@ import javax.swing.undo.UndoableEdit;
 
 public final class UndoManager extends javax.swing.undo.UndoManager
 {
+    private final UndoStore undoStore = new UndoStore();
+
+    public final UndoStore getUndoStore()
+    {
+        return undoStore;
+    }
+
+    public synchronized boolean addEdit(UndoableEdit edit)
+    {
+        UndoableEdit previous = editToBeUndone();
+        boolean result = super.addEdit(edit);
+        // A compound edit may be added after the changes it records have been
+        // made, so the previous edit's line may no longer be as it left it.
+        if (previous instanceof UndoLineEdit && !(edit instanceof CompoundEdit) &&
+            lastEdit() != previous)
+            ((UndoLineEdit) previous).compact();
+        return result;
+    }
+
     public synchronized void undo()
     {
         UndoableEdit edit = editToBeUndone();
@@ -122,7 +122,7 @@ public final class UndoRemoveLine extends AbstractUndoableEdit
             // Markers!!
 
             buffer.setModCount(modificationCount);
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             final Display display = editor.getDisplay();
@@ -174,7 +174,7 @@ public final class UndoRemoveLine extends AbstractUndoableEdit
             // Markers!!
 
             buffer.setModCount(modificationCount);
-            buffer.needsRenumbering = true;
+            buffer.needsRenumbering(true);
             buffer.renumber();
 
             editor.setDot(dotLineNumber, dotOffset);
@@ -0,0 +1,168 @@
+/*
+ * UndoStore.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+
+// Keeps the lines saved by an UndoManager's edits within the memory limit set
+// by the undoMemoryLimit preference.
+//
+// An undo edit that is holding on to lines that aren't in the buffer (the
+// lines of a deleted region, say) adds them here. When the lines added here
+// take up more than the limit, the oldest of them are written out to a
+// temporary file, and read back in if the edit is undone. The temporary file
+// is deleted when none of the lines in it are needed any more.
+public final class UndoStore
+{
+    // Sequences that are in memory and may be spilled, oldest first.
+    private final LinkedList sequences = new LinkedList();
+
+    // Approximate number of bytes used by the sequences in the list.
+    private long memorySize;
+
+    private File file;
+    private RandomAccessFile raf;
+
+    // Number of sequences that are in the file.
+    private int spilledCount;
+
+    // Called when lines has been taken out of the buffer by an edit that may
+    // be undone later.
+    public synchronized void add(LineSequence lines)
+    {
+        if (!lines.isSpillable() || sequences.contains(lines))
+            return;
+        sequences.add(lines);
+        memorySize += lines.getMemorySize();
+        enforceLimit();
+    }
+
+    // Called before lines is put back into the buffer. Reads lines back in
+    // from the file if necessary.
+    public synchronized void remove(LineSequence lines)
+    {
+        if (lines.isSpilled()) {
+            try {
+                lines.load(this);
+            }
+            catch (IOException e) {
+                Log.error(e);
+            }
+            spilled(-1);
+        } else if (sequences.remove(lines))
+            memorySize -= lines.getMemorySize();
+    }
+
+    // Called when the edit that saved lines has been discarded.
+    public synchronized void discard(LineSequence lines)
+    {
+        if (lines.isSpilled()) {
+            lines.discard();
+            spilled(-1);
+        } else if (sequences.remove(lines))
+            memorySize -= lines.getMemorySize();
+    }
+
+    public synchronized void dispose()
+    {
+        sequences.clear();
+        memorySize = 0;
+        spilledCount = 0;
+        closeFile();
+    }
+
+    private void enforceLimit()
+    {
+        final long limit =
+            Editor.preferences().getIntegerProperty(Property.UNDO_MEMORY_LIMIT) * 1024L;
+        if (limit <= 0)
+            return;
+        while (memorySize > limit && !sequences.isEmpty()) {
+            LineSequence lines = (LineSequence) sequences.getFirst();
+            // Once the lines are spilled, there's nothing left to measure.
+            final long size = lines.getMemorySize();
+            try {
+                lines.spill(this);
+            }
+            catch (IOException e) {
+                // Leave everything in memory.
+                Log.error(e);
+                return;
+            }
+            sequences.removeFirst();
+            memorySize -= size;
+            spilled(1);
+        }
+    }
+
+    private void spilled(int n)
+    {
+        spilledCount += n;
+        if (spilledCount <= 0) {
+            spilledCount = 0;
+            closeFile();
+        }
+    }
+
+    // Appends bytes to the file and returns their offset.
+    long write(byte[] bytes) throws IOException
+    {
+        if (raf == null) {
+            file = Utilities.getTempFile();
+            if (file == null)
+                throw new IOException("UndoStore.write can't create temporary file");
+            raf = file.getRandomAccessFile("rw");
+        }
+        final long offset = raf.length();
+        raf.seek(offset);
+        raf.write(bytes);
+        return offset;
+    }
+
+    byte[] read(long offset, int length) throws IOException
+    {
+        if (raf == null)
+            throw new IOException("UndoStore.read no file");
+        byte[] bytes = new byte[length];
+        raf.seek(offset);
+        raf.readFully(bytes);
+        return bytes;
+    }
+
+    private void closeFile()
+    {
+        if (raf != null) {
+            try {
+                raf.close();
+            }
+            catch (IOException e) {
+                Log.error(e);
+            }
+            raf = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
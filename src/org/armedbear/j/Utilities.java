@@ -156,7 +156,7 @@ public final class Utilities implements Constants
         return true;
     }
 
-    public static boolean isDelimited(Mode mode, String s,
+    public static boolean isDelimited(Mode mode, CharSequence s,
                                       int startIndex, int endIndex)
     {
         if (mode == null)
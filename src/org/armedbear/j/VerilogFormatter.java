@@ -281,13 +281,16 @@ public final class VerilogFormatter extends Formatter implements Constants
     public boolean parseBuffer()
     {
         int state = STATE_NEUTRAL;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         boolean changed = false;
         while (line != null) {
             int oldflags = line.flags();
             // Quoted strings can't span lines.
             if (state == STATE_QUOTE)
                 state = STATE_NEUTRAL;
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
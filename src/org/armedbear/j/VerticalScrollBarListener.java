@@ -73,11 +73,12 @@ public final class VerticalScrollBarListener implements AdjustmentListener
             // Fall through...
         }
         // Find the right top line.
-        Line line = editor.getBuffer().getFirstLine();
+        Line line = editor.getBuffer().getLineAtY(newValue);
         int y = 0;
-        while (line != null && y + line.getHeight() <= newValue) {
-            y += line.getHeight();
-            line = line.nextVisible();
+        if (line != null) {
+            y = editor.getBuffer().getY(line);
+            if (y + line.getHeight() <= newValue)
+                line = null; // Past the end of the buffer.
         }
         if (line == display.getTopLine())
             return; // No change.
@@ -495,6 +495,34 @@ public final class WebBuffer extends Buffer implements WebConstants
         return height;
     }
 
+    // Image lines are taller than the others, so the line index can't be used
+    // here.
+    public int getY(Line line)
+    {
+        int y = 0;
+        for (Line l = getFirstLine(); l != null && l != line; l = l.nextVisible())
+            y += l.getHeight();
+        return y;
+    }
+
+    public Line getLineAtY(int y)
+    {
+        Line line = getFirstLine();
+        if (line != null) {
+            int total = 0;
+            while (true) {
+                total += line.getHeight();
+                if (total > y)
+                    break;
+                Line next = line.nextVisible();
+                if (next == null)
+                    break;
+                line = next;
+            }
+        }
+        return line;
+    }
+
     private void insertImage(final Editor editor, final Line line,
         final HtmlLineSegment segment, final Image image)
     {
@@ -517,6 +545,7 @@ public final class WebBuffer extends Buffer implements WebConstants
             before = line;
         }
 
+        needsRenumberingFrom(before.lineNumber());
         final int lineHeight = new TextLine("").getHeight();
         final int imageWidth = image.getWidth(null);
         Line dotLine = null;
@@ -0,0 +1,350 @@
+/*
+ * WordIndex.java
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.armedbear.j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The words in a buffer, for Expansion.
+//
+// The words are kept in a sorted map with a count of how many times each one
+// occurs. The key is the word in lower case, then a null character, then the
+// word itself, so all the words that start with a given prefix, in any case,
+// are next to each other. For each line we remember a hash of its text and
+// the words that were in it; to bring the index up to date after an edit, we
+// only need to look again at the lines whose text has changed. An index is
+// made the first time a buffer's words are asked for; the idle thread keeps
+// the indexes that exist up to date, and find() updates the index first if
+// it has fallen behind. findInOtherBuffers() doesn't build indexes itself,
+// since that would mean reading every buffer while the user waits; it only
+// uses the indexes that have been built, and the idle thread builds the rest
+// from then on.
+public final class WordIndex
+{
+    private static final class Word
+    {
+        final String key;
+        final String word;
+        int count;
+
+        Word(String key, String word)
+        {
+            this.key = key;
+            this.word = word;
+        }
+    }
+
+    private static final class LineWords
+    {
+        final int hash;
+        final int length;
+        final Word[] words;
+        int generation;
+
+        LineWords(int hash, int length, Word[] words)
+        {
+            this.hash = hash;
+            this.length = length;
+            this.words = words;
+        }
+    }
+
+    private static final Word[] NO_WORDS = new Word[0];
+
+    // The index holds an entry and an array of words for every line, so
+    // bigger buffers are searched the old way instead.
+    private static final int MAX_LINES = 250000;
+
+    // Set once findInOtherBuffers() has been called, so that the idle thread
+    // builds an index for every buffer.
+    private static volatile boolean indexAllBuffers;
+
+    private final Buffer buffer;
+
+    // Maps keys to words.
+    private final TreeMap words = new TreeMap();
+
+    // Maps each word itself to the same Word, which is quicker to look up.
+    private final HashMap wordMap = new HashMap();
+
+    // Maps lines to the words that were in them when they were last indexed.
+    private final IdentityHashMap lines = new IdentityHashMap();
+
+    // Incremented on each update, to find the lines that have gone.
+    private int generation;
+
+    // State of the buffer when it was last indexed.
+    private Mode mode;
+    private Line firstLine;
+    private int modCount;
+
+    WordIndex(Buffer buffer)
+    {
+        this.buffer = buffer;
+        IndexBuffersTask.start();
+    }
+
+    public static boolean isIndexable(Buffer buffer)
+    {
+        if (buffer.getType() != Buffer.TYPE_NORMAL || !buffer.isLoaded() ||
+            buffer.getMode() == null)
+            return false;
+        if (buffer instanceof Directory || buffer instanceof LargeFileBuffer)
+            return false;
+        if (buffer.getLineCount() > MAX_LINES)
+            return false;
+        final File file = buffer.getFile();
+        if (file != null && file.isLocal() &&
+            LargeFileBuffer.isLargeFileSize(file.length()))
+            return false;
+        return true;
+    }
+
+    // Brings the index up to date with the buffer.
+    public synchronized void update()
+    {
+        final int count = buffer.getModCount();
+        if (mode != null && mode == buffer.getMode() &&
+            firstLine == buffer.getFirstLine() && modCount == count)
+            return;
+        try {
+            buffer.lockRead();
+        }
+        catch (InterruptedException e) {
+            Log.error(e);
+            return;
+        }
+        try {
+            if (mode != buffer.getMode()) {
+                // Different words.
+                words.clear();
+                wordMap.clear();
+                lines.clear();
+                mode = buffer.getMode();
+            }
+            final int gen = ++generation;
+            for (Line line = buffer.getFirstLine(); line != null; line = line.next()) {
+                final String text = line.getText();
+                final int hash = text.hashCode();
+                LineWords lw = (LineWords) lines.get(line);
+                if (lw == null || lw.hash != hash || lw.length != text.length()) {
+                    if (lw != null)
+                        remove(lw.words);
+                    lw = new LineWords(hash, text.length(), add(text));
+                    lines.put(line, lw);
+                }
+                lw.generation = gen;
+            }
+            // Lines that weren't seen have been removed.
+            for (Iterator it = lines.values().iterator(); it.hasNext();) {
+                LineWords lw = (LineWords) it.next();
+                if (lw.generation != gen) {
+                    remove(lw.words);
+                    it.remove();
+                }
+            }
+            firstLine = buffer.getFirstLine();
+            modCount = count;
+        }
+        finally {
+            buffer.unlockRead();
+        }
+    }
+
+    private Word[] add(String text)
+    {
+        ArrayList list = null;
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!mode.isIdentifierPart(text.charAt(i))) {
+                ++i;
+                continue;
+            }
+            final int begin = i;
+            while (i < length && mode.isIdentifierPart(text.charAt(i)))
+                ++i;
+            final String s = text.substring(begin, i);
+            Word word = (Word) wordMap.get(s);
+            if (word == null) {
+                final String key = s.toLowerCase().concat("\0").concat(s);
+                word = new Word(key, s);
+                words.put(key, word);
+                wordMap.put(s, word);
+            }
+            ++word.count;
+            if (list == null)
+                list = new ArrayList();
+            list.add(word);
+        }
+        if (list == null)
+            return NO_WORDS;
+        return (Word[]) list.toArray(new Word[list.size()]);
+    }
+
+    private void remove(Word[] array)
+    {
+        for (int i = array.length; i-- > 0;) {
+            final Word word = array[i];
+            if (--word.count == 0) {
+                words.remove(word.key);
+                wordMap.remove(word.word);
+            }
+        }
+    }
+
+    // Adds the number of times each word that starts with prefix occurs to
+    // counts. If ignoreCase is true, prefix must be in lower case.
+    private synchronized void count(String prefix, boolean ignoreCase,
+        Map counts)
+    {
+        update();
+        final String lower = ignoreCase ? prefix : prefix.toLowerCase();
+        final Iterator it =
+            words.subMap(lower, lower.concat("\uffff")).values().iterator();
+        while (it.hasNext()) {
+            final Word word = (Word) it.next();
+            if (!ignoreCase && !word.word.startsWith(prefix))
+                continue;
+            int[] n = (int[]) counts.get(word.word);
+            if (n == null)
+                counts.put(word.word, new int[] { word.count });
+            else
+                n[0] += word.count;
+        }
+    }
+
+    // Returns the words in this buffer that start with prefix, most frequent
+    // first.
+    public List find(String prefix, boolean ignoreCase)
+    {
+        HashMap counts = new HashMap();
+        count(prefix, ignoreCase, counts);
+        return sort(counts);
+    }
+
+    // Returns the words in all the buffers except the one given that start
+    // with prefix, most frequent first.
+    public static List findInOtherBuffers(Buffer except, String prefix,
+        boolean ignoreCase)
+    {
+        if (!indexAllBuffers) {
+            indexAllBuffers = true;
+            IndexBuffersTask.start();
+        }
+        HashMap counts = new HashMap();
+        ArrayList indexes = getIndexes(except, false);
+        for (int i = 0; i < indexes.size(); i++) {
+            WordIndex index = (WordIndex) indexes.get(i);
+            if (index.isBuilt())
+                index.count(prefix, ignoreCase, counts);
+        }
+        return sort(counts);
+    }
+
+    // Returns true if the index has been built, even if it's not up to date.
+    private synchronized boolean isBuilt()
+    {
+        return mode != null;
+    }
+
+    // If create is false, only the buffers that already have an index are
+    // included.
+    private static ArrayList getIndexes(Buffer except, boolean create)
+    {
+        ArrayList indexes = new ArrayList();
+        synchronized (Editor.getBufferList()) {
+            for (BufferIterator it = new BufferIterator(); it.hasNext();) {
+                Buffer buf = it.nextBuffer();
+                if (buf == except || !isIndexable(buf))
+                    continue;
+                WordIndex index =
+                    create ? buf.getWordIndex() : buf.getExistingWordIndex();
+                if (index != null)
+                    indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    private static List sort(final Map counts)
+    {
+        ArrayList list = new ArrayList(counts.keySet());
+        Collections.sort(list, new Comparator() {
+            public int compare(Object o1, Object o2)
+            {
+                int n1 = ((int[]) counts.get(o1))[0];
+                int n2 = ((int[]) counts.get(o2))[0];
+                if (n1 != n2)
+                    return n1 > n2 ? -1 : 1;
+                return ((String) o1).compareTo((String) o2);
+            }
+        });
+        return list;
+    }
+
+    // Updates the existing indexes while the user is idle, so find() doesn't
+    // have much to do. Once findInOtherBuffers() has been called, the buffers
+    // that don't have an index get one too. Until then, an index that
+    // releaseTextCache() has dropped isn't built again until it's needed.
+    private static final class IndexBuffersTask extends IdleThreadTask
+    {
+        private static IndexBuffersTask instance;
+
+        private IndexBuffersTask()
+        {
+            setIdle(1000);
+            setPriority(PRIORITY_LOW);
+            setName("indexBuffers");
+            setRunnable(runnable);
+        }
+
+        private static synchronized void start()
+        {
+            if (instance == null) {
+                IdleThread idleThread = IdleThread.getInstance();
+                if (idleThread != null) {
+                    instance = new IndexBuffersTask();
+                    idleThread.maybeAddTask(instance);
+                }
+            }
+        }
+
+        private final Runnable runnable = new Runnable() {
+            public void run()
+            {
+                ArrayList indexes = getIndexes(null, indexAllBuffers);
+                for (int i = 0; i < indexes.size(); i++) {
+                    if (isCancelled())
+                        return;
+                    ((WordIndex) indexes.get(i)).update();
+                }
+            }
+        };
+    }
+}
@@ -347,11 +347,14 @@ public final class XmlFormatter extends Formatter
     public boolean parseBuffer()
     {
         int state = STATE_NEUTRAL;
-        Line line = buffer.getFirstLine();
+        Line line = getFirstLineToParse(STATE_NEUTRAL);
+        final int last = getLastLineToParse();
         Position pos = new Position(line, 0);
         boolean changed = false;
         while (line != null) {
             int oldflags = line.flags();
+            if (state == oldflags && line.lineNumber() > last)
+                break; // Nothing has changed from here on.
             if (state != oldflags) {
                 line.setFlags(state);
                 changed = true;
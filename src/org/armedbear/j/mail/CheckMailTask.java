@@ -39,6 +39,7 @@ public final class CheckMailTask extends IdleThreadTask
     private CheckMailTask()
     {
         setIdle(10000); // User must be idle for 10 seconds.
+        setPriority(PRIORITY_LOW);
         setRunnable(runnable);
     }
 
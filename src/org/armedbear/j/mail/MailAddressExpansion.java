@@ -83,6 +83,11 @@ public final class MailAddressExpansion extends Expansion
         }
     }
 
+    // The candidates are address book entries, not words.
+    protected void appendCandidatesFromOtherBuffers()
+    {
+    }
+
     public String getNextCandidate()
     {
         if (candidates == null || candidates.size() == 0)
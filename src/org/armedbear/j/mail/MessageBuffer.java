@@ -168,6 +168,26 @@ public class MessageBuffer extends Buffer
         return y;
     }
 
+    // Returns the visible line at y (the inverse of getY()). Image lines are
+    // taller than the others, so the line index can't be used.
+    public Line getLineAtY(int y)
+    {
+        Line line = getFirstLine();
+        if (line != null) {
+            int total = 0;
+            while (true) {
+                total += line.getHeight();
+                if (total > y)
+                    break;
+                Line next = line.nextVisible();
+                if (next == null)
+                    break;
+                line = next;
+            }
+        }
+        return line;
+    }
+
     protected void setEntry(MailboxEntry entry)
     {
         Debug.assertTrue(entry != null);